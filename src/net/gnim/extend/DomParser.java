@@ -1,7 +1,32 @@
 package net.gnim.extend;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * DOM解析器
@@ -27,6 +52,68 @@ public class DomParser {
      * 默认换行
      */
     private static final String DEFAULT_LINE = "\n";
+    /**
+     * 并行解析时每段内容的最小长度
+     */
+    private static final int PARALLEL_MIN_CHUNK = 64 * 1024;
+    /**
+     * 字符类型：单词字符
+     */
+    private static final byte CH_WORD = 1;
+    /**
+     * 字符类型：查找匹配字符时可直接跳过的字符
+     */
+    private static final byte CH_SKIP = 2;
+    /**
+     * 字符类型：空白字符
+     */
+    private static final byte CH_SPACE = 4;
+    /**
+     * 字符类型：引号
+     */
+    private static final byte CH_QUOTE = 8;
+    /**
+     * 字符类型：左括号
+     */
+    private static final byte CH_OPEN = 16;
+    /**
+     * 字符类型：右括号
+     */
+    private static final byte CH_CLOSE = 32;
+    /**
+     * ASCII字符类型表
+     */
+    private static final byte[] CHAR_TYPES = new byte[128];
+    /**
+     * ASCII小写字符表
+     */
+    private static final char[] LOWER_CHARS = new char[128];
+
+    static {
+        for (char ch = 0; ch < 128; ch++) {
+            byte type;
+            if ((ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9')
+                    || ch == '_' || ch == '-' || ch == ':' || ch == '.') {
+                type = CH_WORD | CH_SKIP;
+            } else if (ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r') {
+                type = CH_SPACE | CH_SKIP;
+            } else if (ch == '=') {
+                type = CH_SKIP;
+            } else if (ch == '<' || ch == '(' || ch == '[' || ch == '{') {
+                type = CH_OPEN;
+            } else if (ch == '>' || ch == ')' || ch == ']' || ch == '}') {
+                type = CH_CLOSE;
+            } else if (ch == '!') {
+                type = 0;
+            } else if (ch == '"' || ch == '\'') {
+                type = CH_WORD | CH_QUOTE;
+            } else {
+                type = CH_WORD;
+            }
+            CHAR_TYPES[ch] = type;
+            LOWER_CHARS[ch] = Character.toLowerCase(ch);
+        }
+    }
 
     /**
      * 节点
@@ -68,6 +155,32 @@ public class DomParser {
          * 子节点组
          */
         public ArrayList<Node> children;
+        /**
+         * 节点在源内容中的起止索引，未记录或元素未结束时为-1
+         */
+        protected int sourceStart = -1, sourceEnd = -1;
+        /**
+         * 文档索引，只在根节点上
+         */
+        private DocumentIndex index;
+
+        /**
+         * 获取节点在源内容中的起始索引
+         *
+         * @return 起始索引，未记录时为-1
+         */
+        public int getSourceStart() {
+            return sourceStart;
+        }
+
+        /**
+         * 获取节点在源内容中的截止索引
+         *
+         * @return 截止索引，未记录或元素没有结束标签时为-1
+         */
+        public int getSourceEnd() {
+            return sourceEnd;
+        }
 
         /**
          * 获取父节点
@@ -84,6 +197,7 @@ public class DomParser {
          * @return 子节点组
          */
         public ArrayList<Node> getChildren() {
+            loadChildren();
             return children;
         }
 
@@ -93,6 +207,7 @@ public class DomParser {
          * @return 子元素节点组
          */
         public ArrayList<NodeElement> getChildElements() {
+            loadChildren();
             if (children == null) {
                 return null;
             }
@@ -113,6 +228,7 @@ public class DomParser {
          * @return 子元素节点组
          */
         public ArrayList<NodeElement> getChildElements(String tagName) {
+            loadChildren();
             if (children == null) {
                 return null;
             }
@@ -136,6 +252,7 @@ public class DomParser {
          * @return 子节点
          */
         public Node getChild(int index) {
+            loadChildren();
             return (children != null && children.size() >= index) ? children.get(index) : null;
         }
 
@@ -146,6 +263,7 @@ public class DomParser {
          * @return 元素子节点
          */
         public NodeElement getChildElement(int index) {
+            loadChildren();
             if (children != null) {
                 int count = 0;
                 for (int i = 0; i < children.size(); i++) {
@@ -167,6 +285,7 @@ public class DomParser {
          * @return 节点所在子节点索引
          */
         public int indexOfChild(Node child) {
+            loadChildren();
             if (children != null && child != null) {
                 for (int i = 0; i < children.size(); i++) {
                     if (children.get(i).equals(child)) {
@@ -184,6 +303,7 @@ public class DomParser {
          * @return 节点所在子节点索引
          */
         public int indexOfChildElement(NodeElement child) {
+            loadChildren();
             if (children != null && child != null) {
                 int index = 0;
                 for (int i = 0; i < children.size(); i++) {
@@ -225,12 +345,26 @@ public class DomParser {
          * @return 类本身
          */
         public Node addChild(Node child) {
+            append(child);
+            DocumentIndex rootIndex = getRootIndex();
+            if (rootIndex != null) {
+                rootIndex.addTree(child);
+            }
+            return this;
+        }
+
+        /**
+         * 添加子节点，不更新文档索引，构造节点时使用
+         *
+         * @param child 子节点
+         */
+        private void append(Node child) {
+            loadChildren();
             if (children == null) {
                 children = new ArrayList<Node>();
             }
             child.parent = this;
             children.add(child);
-            return this;
         }
 
         /**
@@ -241,6 +375,7 @@ public class DomParser {
          * @return 类本身
          */
         public Node addChild(Node child, int index) {
+            loadChildren();
             if (children == null) {
                 children = new ArrayList<Node>();
             }
@@ -250,6 +385,10 @@ public class DomParser {
             } else {
                 children.add(index, child);
             }
+            DocumentIndex rootIndex = getRootIndex();
+            if (rootIndex != null) {
+                rootIndex.addTree(child);
+            }
             return this;
         }
 
@@ -260,10 +399,15 @@ public class DomParser {
          * @return 是否移除成功
          */
         public boolean removeChild(Node child) {
+            loadChildren();
             if (children != null && child != null) {
                 for (int i = 0; i < children.size(); i++) {
                     if (child.equals(children.get(i))) {
                         children.remove(i);
+                        DocumentIndex rootIndex = getRootIndex();
+                        if (rootIndex != null) {
+                            rootIndex.removeTree(child);
+                        }
                         return true;
                     }
                 }
@@ -277,6 +421,7 @@ public class DomParser {
          * @return 内部DOM字符串
          */
         public String inner() {
+            loadChildren();
             if (children != null) {
                 StringBuilder sb = new StringBuilder();
                 for (Node child : children) {
@@ -307,7 +452,14 @@ public class DomParser {
          */
         public boolean inner(String document, boolean xmlmode) {
             Node root = build(document, xmlmode);
+            loadChildren();
             if (root.children != null) {
+                DocumentIndex rootIndex = getRootIndex();
+                if (rootIndex != null) {
+                    for (Node child : children) {
+                        rootIndex.removeTree(child);
+                    }
+                }
                 children.clear();
                 for (Node child : root.children) {
                     addChild(child);
@@ -365,6 +517,7 @@ public class DomParser {
          * @return 转为字符串的节点
          */
         public String toString(boolean format, String space, String line, int levelref) {
+            loadChildren();
             if (children != null) {
                 StringBuilder sb = new StringBuilder();
                 if (format) {
@@ -476,6 +629,10 @@ public class DomParser {
          * @return 找到的节点列表
          */
         public ArrayList<NodeElement> getElementById(String id) {
+            DocumentIndex rootIndex = getRootIndex();
+            if (rootIndex != null) {
+                return rootIndex.descendants(rootIndex.ids, id, this, null);
+            }
             final String idFinal = id;
             return getElementsByFilter(new FilterElement() {
 
@@ -493,6 +650,10 @@ public class DomParser {
          * @return 找到的节点列表
          */
         public ArrayList<NodeElement> getElementsByClassName(String className) {
+            DocumentIndex rootIndex = getRootIndex();
+            if (rootIndex != null) {
+                return rootIndex.descendants(rootIndex.classes, className, this, null);
+            }
             final String classNameFinal = className;
             return getElementsByFilter(new FilterElement() {
 
@@ -530,14 +691,19 @@ public class DomParser {
          * @return 找到的节点列表
          */
         public ArrayList<NodeElement> getElementsByTagName(String tagName, boolean xmlmode) {
-            final String tagNameFinal = tagName;
+            DocumentIndex rootIndex = getRootIndex();
+            if (rootIndex != null && !"*".equals(tagName)) {
+                return rootIndex.descendants(rootIndex.tags, tagName == null ? null : tagName.toLowerCase(),
+                        this, xmlmode ? tagName : null);
+            }
+            final String tagNameFinal = tagName == null || xmlmode ? tagName : tagName.toLowerCase();
             final boolean addAll = "*".equals(tagName);
             final boolean xmlmodeFinal = xmlmode;
             return getElementsByFilter(new FilterElement() {
 
                 @Override
                 public boolean match(NodeElement node) {
-                    return addAll || strEqual(tagNameFinal, node.name, !xmlmodeFinal);
+                    return addAll || strEqual(tagNameFinal, xmlmodeFinal ? node.name : node.getLowerName(), false);
                 }
             });
         }
@@ -551,6 +717,12 @@ public class DomParser {
          * @return 找到的节点列表
          */
         public ArrayList<NodeElement> getElementsByTagAttr(String tagAttrName, String tagAttrValue, boolean xmlmode) {
+            DocumentIndex rootIndex = getRootIndex();
+            DocumentIndex.AttrIndex attrIndex = rootIndex == null || tagAttrName == null || tagAttrValue == null
+                    ? null : rootIndex.attrs.get(tagAttrName.toLowerCase());
+            if (attrIndex != null) {
+                return rootIndex.descendants(attrIndex.values, tagAttrValue, this, null);
+            }
             final String tagAttrNameFinal = tagAttrName;
             final String tagAttrValueFinal = tagAttrValue;
             final boolean xmlmodeFinal = xmlmode;
@@ -571,8 +743,9 @@ public class DomParser {
          * @param context 当前上下文结点
          */
         private static void findNodesByFilter(ArrayList<Node> matches, Filter filter, Node context) {
-            if (context.children != null) {
-                for (Node child : context.children) {
+            ArrayList<Node> children = context.getChildren();
+            if (children != null) {
+                for (Node child : children) {
                     if (filter.match(child)) {
                         matches.add(child);
                     }
@@ -581,6 +754,91 @@ public class DomParser {
             }
         }
 
+        /**
+         * 按文档顺序（先序）逐个查找子孙元素的迭代器，以栈记录每层子节点组中的位置
+         */
+        private static final class ElementIterator implements Iterator<NodeElement> {
+
+            /**
+             * 元素过滤器，为null时接受所有元素
+             */
+            private final FilterElement filter;
+            /**
+             * 各层的子节点组
+             */
+            private final ArrayList<ArrayList<Node>> levels = new ArrayList<ArrayList<Node>>();
+            /**
+             * 各层中下一个访问的位置
+             */
+            private int[] positions = new int[16];
+            /**
+             * 已找到但尚未返回的元素
+             */
+            private NodeElement next;
+
+            ElementIterator(Node context, FilterElement filter) {
+                this.filter = filter;
+                push(context.getChildren());
+            }
+
+            private void push(ArrayList<Node> children) {
+                if (children != null && !children.isEmpty()) {
+                    if (levels.size() == positions.length) {
+                        int[] grown = new int[positions.length * 2];
+                        System.arraycopy(positions, 0, grown, 0, positions.length);
+                        positions = grown;
+                    }
+                    positions[levels.size()] = 0;
+                    levels.add(children);
+                }
+            }
+
+            /**
+             * 遍历到下一个满足条件的元素
+             *
+             * @return 元素，遍历结束时返回null
+             */
+            NodeElement advance() {
+                while (!levels.isEmpty()) {
+                    int level = levels.size() - 1;
+                    ArrayList<Node> children = levels.get(level);
+                    if (positions[level] >= children.size()) {
+                        levels.remove(level);
+                        continue;
+                    }
+                    Node child = children.get(positions[level]++);
+                    push(child.getChildren());
+                    if (child instanceof NodeElement && (filter == null || filter.match((NodeElement) child))) {
+                        return (NodeElement) child;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = advance();
+                }
+                return next != null;
+            }
+
+            @Override
+            public NodeElement next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                NodeElement element = next;
+                next = null;
+                return element;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }
+
         /**
          * 通过过滤器查找子元素并添加到结果中
          *
@@ -589,8 +847,9 @@ public class DomParser {
          * @param context 当前上下文结点
          */
         private static void findChildNodesByFilter(ArrayList<Node> matches, Filter filter, Node context) {
-            if (context.children != null) {
-                for (Node child : context.children) {
+            ArrayList<Node> children = context.getChildren();
+            if (children != null) {
+                for (Node child : children) {
                     if (filter.match(child)) {
                         matches.add(child);
                     }
@@ -606,76 +865,199 @@ public class DomParser {
          * E:root<br/>E:nth-child(n)<br/>E:nth-last-child(n)<br/>
          * E:nth-of-type(n)<br/>E:nth-last-of-type(n)<br/>
          * E:first-child<br/>E:last-child<br/>E:first-of-type<br/>E:last-of-type<br/>
-         * E:only-child<br/>E:only-of-type<br/>E:empty<br/>
+         * E:only-child<br/>E:only-of-type<br/>E:empty<br/>E, F<br/>
+         * 编译结果缓存在{@link Selector#cache()}中
          *
          * @param cssSelector css选择器
          * @return 找到的节点列表
          */
         public ArrayList<NodeElement> search(String cssSelector) {
-            ArrayList<Node> context = new ArrayList<Node>();
-            ArrayList<NodeElement> result = null;
-            context.add(this);
-            if (cssSelector == null || cssSelector.isEmpty()) {
-                return new ArrayList<NodeElement>();
+            return Selector.CACHE.get(cssSelector).search(this);
+        }
+
+        /**
+         * 通过预编译的CSS选择器查找结点组
+         *
+         * @param selector 预编译的选择器
+         * @return 找到的节点列表
+         */
+        public ArrayList<NodeElement> search(Selector selector) {
+            return selector.search(this);
+        }
+
+        /**
+         * 在一次遍历中执行多个命名查询，每个节点只访问一次并以所有查询判断，
+         * 各查询的结果与单独调用search或getElementsByFilter相同
+         *
+         * @param queries 按名称的查询，值为选择器字符串、{@link Selector}或{@link FilterElement}
+         * @return 按名称的结果，与查询的迭代顺序相同
+         */
+        public LinkedHashMap<String, ArrayList<NodeElement>> searchAll(Map<String, ?> queries) {
+            return Selector.searchAll(this, queries);
+        }
+
+        /**
+         * 按文档顺序逐个查找满足过滤条件的元素节点，每次迭代只遍历到下一个满足条件的元素为止<br/>
+         * 迭代期间不能修改文档结构
+         *
+         * @param filter 元素过滤器，为null时返回所有元素
+         * @return 元素节点的迭代器，可多次迭代
+         */
+        public Iterable<NodeElement> iterateElementsByFilter(FilterElement filter) {
+            final Node context = this;
+            final FilterElement filterFinal = filter;
+            return new Iterable<NodeElement>() {
+
+                @Override
+                public Iterator<NodeElement> iterator() {
+                    return new ElementIterator(context, filterFinal);
+                }
+            };
+        }
+
+        /**
+         * 按文档顺序逐个查找指定标签名的元素节点
+         *
+         * @param tagName 元素标签名，*为所有元素
+         * @return 元素节点的迭代器，可多次迭代
+         */
+        public Iterable<NodeElement> iterateElementsByTagName(String tagName) {
+            return iterateElementsByTagName(tagName, false);
+        }
+
+        /**
+         * 按文档顺序逐个查找指定标签名的元素节点
+         *
+         * @param tagName 元素标签名，*为所有元素
+         * @param xmlmode 是否以XML解析，区分大小写
+         * @return 元素节点的迭代器，可多次迭代
+         */
+        public Iterable<NodeElement> iterateElementsByTagName(String tagName, boolean xmlmode) {
+            if ("*".equals(tagName)) {
+                return iterateElementsByFilter(null);
             }
-            ArrayList<String> words = getSelectorWordList(cssSelector);
-            int index = 0;
-            while (index < words.size()) {
-                String word = words.get(index);
-                if ("#".equals(word) || ".".equals(word) || ">".equals(word)
-                        || "+".equals(word) || "~".equals(word)) {
-                    if (index + 1 < words.size()) {
-                        result = searchElement(context, word.charAt(0), words.get(index + 1));
-                        index++;
-                    } else {
-                        result = null;
-                    }
-                } else if (":".equals(word)) {
-                    if (index + 1 < words.size()) {
-                        result = searchElement(context, word.charAt(0), words.get(index + 1));
-                        index++;
-                    } else {
-                        result = null;
-                    }
-                } else if ("[".equals(word)) {
-                    int endIndex = index + 1;
-                    while (endIndex < words.size()) {
-                        if ("]".equals(words.get(endIndex))) {
-                            break;
-                        }
-                        endIndex++;
-                    }
-                    if (endIndex < words.size()) {
-                        int size = endIndex - index;
-                        switch (size) {
-                            case 2://[NAME]
-                                result = searchElement(context, '[', words.get(index + 1));
-                                break;
-                            case 4://[NAME=VALUE]
-                                result = searchElement(context, '[', words.get(index + 1), ' ', words.get(index + 3));
-                                break;
-                            case 5://[NAME?=VALUE]
-                                result = searchElement(context, '[', words.get(index + 1),
-                                        words.get(index + 2).charAt(0), words.get(index + 4));
-                                break;
-                            default:
-                                result = null;
-                                break;
-                        }
-                        index = endIndex + 1;
-                    } else {
-                        result = null;
-                    }
-                } else {
-                    result = searchElement(context, ' ', word);
+            final String tagNameFinal = tagName == null || xmlmode ? tagName : tagName.toLowerCase();
+            final boolean xmlmodeFinal = xmlmode;
+            return iterateElementsByFilter(new FilterElement() {
+
+                @Override
+                public boolean match(NodeElement node) {
+                    return strEqual(tagNameFinal, xmlmodeFinal ? node.name : node.getLowerName(), false);
                 }
-                if (result != null) {
-                    context = new ArrayList<Node>();
-                    for (NodeElement elm : result) {
-                        context.add(elm);
-                    }
+            });
+        }
+
+        /**
+         * 按文档顺序逐个查找指定ID的元素节点，有文档索引时直接使用索引
+         *
+         * @param id 元素ID
+         * @return 元素节点的迭代器，可多次迭代
+         */
+        public Iterable<NodeElement> iterateElementById(String id) {
+            if (getRootIndex() != null) {
+                return getElementById(id);
+            }
+            final String idFinal = id;
+            return iterateElementsByFilter(new FilterElement() {
+
+                @Override
+                public boolean match(NodeElement node) {
+                    return strEqual(idFinal, node.getAttrValue("id"), false);
+                }
+            });
+        }
+
+        /**
+         * 按文档顺序逐个查找满足CSS选择器的元素，结果与search相同<br/>
+         * 可从右向左匹配的选择器在遍历中逐个判断元素，其余选择器在首次迭代时完整查找
+         *
+         * @param cssSelector css选择器
+         * @return 元素节点的迭代器，可多次迭代
+         */
+        public Iterable<NodeElement> iterateSearch(String cssSelector) {
+            return iterateSearch(Selector.CACHE.get(cssSelector));
+        }
+
+        /**
+         * 按文档顺序逐个查找满足预编译CSS选择器的元素，结果与search相同
+         *
+         * @param selector 预编译的选择器
+         * @return 元素节点的迭代器，可多次迭代
+         */
+        public Iterable<NodeElement> iterateSearch(Selector selector) {
+            final Node context = this;
+            final Selector selectorFinal = selector;
+            return new Iterable<NodeElement>() {
+
+                @Override
+                public Iterator<NodeElement> iterator() {
+                    return selectorFinal.iterate(context);
+                }
+            };
+        }
+
+        /**
+         * 查找第一个满足过滤条件的元素节点，找到后不再遍历
+         *
+         * @param filter 元素过滤器，为null时返回第一个元素
+         * @return 第一个满足条件的元素，没有时返回null
+         */
+        public NodeElement findFirst(FilterElement filter) {
+            return new ElementIterator(this, filter).advance();
+        }
+
+        /**
+         * 查找第一个满足CSS选择器的元素，找到后不再遍历
+         *
+         * @param cssSelector css选择器
+         * @return 第一个满足选择器的元素，没有时返回null
+         */
+        public NodeElement searchFirst(String cssSelector) {
+            return searchFirst(Selector.CACHE.get(cssSelector));
+        }
+
+        /**
+         * 查找第一个满足预编译CSS选择器的元素，找到后不再遍历
+         *
+         * @param selector 预编译的选择器
+         * @return 第一个满足选择器的元素，没有时返回null
+         */
+        public NodeElement searchFirst(Selector selector) {
+            Iterator<NodeElement> iterator = selector.iterate(this);
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        /**
+         * 通过属性值索引查找上下文节点下满足标签名和属性选择器的元素，结果与先按标签名查找再按属性过滤相同，按文档顺序排列
+         *
+         * @param context 上下文节点组
+         * @param tagName 标签名
+         * @param attrName 属性名
+         * @param oper 属性操作符
+         * @param attrValue 属性值
+         * @return 查找到的结果，不能使用索引时返回null
+         */
+        private static ArrayList<NodeElement> searchIndexedAttr(ArrayList<Node> context, String tagName,
+                String attrName, char oper, String attrValue) {
+            if (context.isEmpty()) {
+                return null;
+            }
+            DocumentIndex rootIndex = context.get(0).getRootIndex();
+            if (rootIndex == null || rootIndex.attrs.isEmpty()) {
+                return null;
+            }
+            ArrayList<DocumentIndex.Entry> entries = rootIndex.lookup(attrName, oper, attrValue);
+            if (entries == null) {
+                return null;
+            }
+            String lowerName = tagName.toLowerCase();
+            boolean addAll = "*".equals(tagName);
+            ArrayList<NodeElement> matches = rootIndex.within(rootIndex.ordered(entries, context.get(0)), context, null);
+            ArrayList<NodeElement> result = new ArrayList<NodeElement>();
+            for (NodeElement element : matches) {
+                if (addAll || lowerName.equals(element.getLowerName())) {
+                    result.add(element);
                 }
-                index++;
             }
             return result;
         }
@@ -751,85 +1133,284 @@ public class DomParser {
         }
 
         /**
-         * 合并两个节点列表
+         * 以节点组建立按引用判断的集合
          *
-         * @param list1 节点列表1
-         * @param list2 节点列表2
-         * @return 合并后的节点列表
+         * @param nodes 节点组
+         * @return 节点集合
          */
-        private static ArrayList<NodeElement> mergeNodes(ArrayList<NodeElement> list1, ArrayList<NodeElement> list2) {
-            if (list1 != null && list2 != null) {
-                for (NodeElement node : list2) {
-                    if (!list1.contains(node)) {
-                        list1.add(node);
-                    }
-                }
-                return list1;
-            } else {
-                return list1 != null ? list1 : list2;
+        private static IdentityHashMap<Node, Boolean> identitySet(ArrayList<? extends Node> nodes) {
+            IdentityHashMap<Node, Boolean> set = new IdentityHashMap<Node, Boolean>(nodes.size());
+            for (Node node : nodes) {
+                set.put(node, Boolean.TRUE);
             }
+            return set;
         }
 
         /**
-         * 将一个选择器应用于上下文元素查找
+         * 判断节点是否有祖先在集合中
          *
-         * @param context 上下文元素组
-         * @param oper1 操作字符1(0,' ','.','#',':','>','+','~','[')
-         * @param str1 字符串1 对应操作符1使用
-         * @return 查找到的结果
+         * @param node 节点
+         * @param ancestors 祖先节点集合
+         * @return 是否有祖先在集合中
          */
-        private static ArrayList<NodeElement> searchElement(ArrayList<Node> context, char oper1, String str1) {
-            return searchElement(context, oper1, str1, ' ', null);
+        private static boolean hasAncestor(Node node, IdentityHashMap<Node, Boolean> ancestors) {
+            for (Node parent = node.parent; parent != null; parent = parent.parent) {
+                if (ancestors.containsKey(parent)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         /**
-         * 将一个选择器应用于上下文元素查找
+         * 按引用去除节点列表中的重复节点，保留第一次出现的位置
          *
-         * @param context 上下文元素组
-         * @param oper1 操作字符1(0,' ','.','#',':','>','+','~','[')
-         * @param str1 字符串1 对应操作符1使用
-         * @param oper2 操作字符2 属性操作(0,' ','.','#',':','>','+','~','[')
-         * @param str2 字符串2 用于属性操作
-         * @return 查找到的结果
+         * @param list 节点列表
+         * @return 去重后的节点列表
          */
-        private static ArrayList<NodeElement> searchElement(ArrayList<Node> context, char oper1, String str1, char oper2, String str2) {
-            ArrayList<NodeElement> findNodes = null;
-            switch (oper1) {
+        private static ArrayList<NodeElement> distinct(ArrayList<NodeElement> list) {
+            if (list.size() < 2) {
+                return list;
+            }
+            IdentityHashMap<Node, Boolean> seen = new IdentityHashMap<Node, Boolean>(list.size());
+            ArrayList<NodeElement> result = new ArrayList<NodeElement>(list.size());
+            for (NodeElement node : list) {
+                if (seen.put(node, Boolean.TRUE) == null) {
+                    result.add(node);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 将节点列表按文档顺序排列；有文档索引时使用索引的编号，否则以各节点自根节点起在父节点中的位置序列比较，
+         * 只在列表中节点的祖先链分叉处为子节点编号，不遍历整个文档
+         *
+         * @param list 同一文档中的节点列表
+         * @return 排列后的节点列表
+         */
+        private static ArrayList<NodeElement> documentOrder(ArrayList<NodeElement> list) {
+            if (list.size() < 2) {
+                return list;
+            }
+            Node root = list.get(0);
+            while (root.parent != null) {
+                root = root.parent;
+            }
+            if (root.index != null) {
+                root.index.renumber(root);
+                Collections.sort(list, DocumentIndex.ORDER);
+                return list;
+            }
+            IdentityHashMap<Node, Integer> positions = new IdentityHashMap<Node, Integer>();
+            IdentityHashMap<Node, Integer> branches = new IdentityHashMap<Node, Integer>();
+            for (NodeElement element : list) {//记录各父节点下有多少个分支
+                for (Node node = element; node.parent != null && !positions.containsKey(node); node = node.parent) {
+                    positions.put(node, 0);
+                    Integer count = branches.get(node.parent);
+                    branches.put(node.parent, count == null ? 1 : count + 1);
+                }
+            }
+            for (Map.Entry<Node, Integer> branch : branches.entrySet()) {//只有一个分支的父节点不影响顺序，无需编号
+                if (branch.getValue() > 1) {
+                    ArrayList<Node> siblings = branch.getKey().getChildren();
+                    for (int i = 0; i < siblings.size(); i++) {
+                        if (positions.containsKey(siblings.get(i))) {
+                            positions.put(siblings.get(i), i);
+                        }
+                    }
+                }
+            }
+            final IdentityHashMap<Node, int[]> paths = new IdentityHashMap<Node, int[]>();
+            ArrayList<Integer> path = new ArrayList<Integer>();
+            for (NodeElement element : list) {
+                path.clear();
+                for (Node node = element; node.parent != null; node = node.parent) {
+                    path.add(positions.get(node));
+                }
+                int[] array = new int[path.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = path.get(array.length - 1 - i);
+                }
+                paths.put(element, array);
+            }
+            Collections.sort(list, new Comparator<NodeElement>() {
+
+                @Override
+                public int compare(NodeElement o1, NodeElement o2) {
+                    int[] path1 = paths.get(o1);
+                    int[] path2 = paths.get(o2);
+                    int length = Math.min(path1.length, path2.length);
+                    for (int i = 0; i < length; i++) {
+                        if (path1[i] != path2[i]) {
+                            return path1[i] < path2[i] ? -1 : 1;
+                        }
+                    }
+                    return path1.length < path2.length ? -1 : (path1.length == path2.length ? 0 : 1);
+                }
+            });
+            return list;
+        }
+
+        /**
+         * 判断上下文节点组中是否有节点是另一节点的子孙
+         *
+         * @param context 上下文节点组
+         * @return 是否有嵌套
+         */
+        private static boolean hasNested(ArrayList<Node> context) {
+            if (context.size() < 2) {
+                return false;
+            }
+            IdentityHashMap<Node, Boolean> contextSet = identitySet(context);
+            for (Node node : context) {
+                if (hasAncestor(node, contextSet)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 查找上下文节点下满足条件的子孙元素；上下文节点按文档顺序排列时，
+         * 跳过已在之前上下文节点子树中的节点，每个节点只访问一次，结果按文档顺序排列且不重复
+         *
+         * @param context 上下文节点组
+         * @param oper 操作字符(' ','#','.')
+         * @param str 标签名、ID或类名
+         * @return 查找到的结果
+         */
+        private static ArrayList<NodeElement> searchDescendants(ArrayList<Node> context, char oper, String str) {
+            if (context.size() == 1) {
+                Node cNode = context.get(0);
+                switch (oper) {
+                    case '#':
+                        return cNode.getElementById(str);
+                    case '.':
+                        return cNode.getElementsByClassName(str);
+                    default:
+                        return cNode.getElementsByTagName(str);
+                }
+            }
+            ArrayList<NodeElement> result = new ArrayList<NodeElement>();
+            if (context.isEmpty()) {
+                return result;
+            }
+            DocumentIndex rootIndex = context.get(0).getRootIndex();
+            if (rootIndex != null && !(oper != '#' && oper != '.' && "*".equals(str))) {//以索引按各上下文节点的编号区间查找
+                switch (oper) {
+                    case '#':
+                        return rootIndex.descendants(rootIndex.ids, str, context, null);
+                    case '.':
+                        return rootIndex.descendants(rootIndex.classes, str, context, null);
+                    default:
+                        return rootIndex.descendants(rootIndex.tags, str == null ? null : str.toLowerCase(), context, null);
+                }
+            }
+            IdentityHashMap<Node, Boolean> contextSet = identitySet(context);
+            final String strFinal = oper == '#' || oper == '.' || str == null ? str : str.toLowerCase();
+            final char operFinal = oper;
+            final boolean addAll = "*".equals(str);
+            FilterElement filter = new FilterElement() {
+
+                @Override
+                public boolean match(NodeElement node) {
+                    switch (operFinal) {
+                        case '#':
+                            return strEqual(strFinal, node.getAttrValue("id"), false);
+                        case '.':
+                            String elementClassName = node.getAttrValue("class");
+                            if (elementClassName != null) {
+                                for (String cn : elementClassName.split("\\s")) {
+                                    if (strEqual(strFinal, cn, false)) {
+                                        return true;
+                                    }
+                                }
+                            }
+                            return false;
+                        default:
+                            return addAll || strEqual(strFinal, node.getLowerName(), false);
+                    }
+                }
+            };
+            IdentityHashMap<Node, Boolean> covered = new IdentityHashMap<Node, Boolean>();
+            for (Node cNode : context) {
+                if (!covered.containsKey(cNode)) {
+                    findElements(result, filter, cNode, contextSet, covered);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 查找满足过滤条件的子孙元素并添加到结果中，同时记录遇到的上下文节点
+         *
+         * @param matches 满足条件的元素组
+         * @param filter 元素过滤器
+         * @param context 当前上下文结点
+         * @param contextSet 上下文节点集合
+         * @param covered 已在子树中遇到的上下文节点
+         */
+        private static void findElements(ArrayList<NodeElement> matches, FilterElement filter, Node context,
+                IdentityHashMap<Node, Boolean> contextSet, IdentityHashMap<Node, Boolean> covered) {
+            ArrayList<Node> children = context.getChildren();
+            if (children != null) {
+                for (Node child : children) {
+                    if (child instanceof NodeElement) {
+                        if (filter.match((NodeElement) child)) {
+                            matches.add((NodeElement) child);
+                        }
+                        if (contextSet.containsKey(child)) {
+                            covered.put(child, Boolean.TRUE);
+                        }
+                    }
+                    findElements(matches, filter, child, contextSet, covered);
+                }
+            }
+        }
+
+        /**
+         * 将一个选择器应用于上下文元素查找
+         *
+         * @param context 上下文元素组
+         * @param oper1 操作字符1(0,' ','.','#','>','+','~','[')
+         * @param str1 字符串1 对应操作符1使用
+         * @return 查找到的结果
+         */
+        private static ArrayList<NodeElement> searchElement(ArrayList<Node> context, char oper1, String str1) {
+            return searchElement(context, oper1, str1, ' ', null);
+        }
+
+        /**
+         * 将一个选择器应用于上下文元素查找
+         *
+         * @param context 上下文元素组
+         * @param oper1 操作字符1(0,' ','.','#','>','+','~','[')
+         * @param str1 字符串1 对应操作符1使用
+         * @param oper2 操作字符2 属性操作(0,' ','.','#','>','+','~','[')
+         * @param str2 字符串2 用于属性操作
+         * @return 查找到的结果
+         */
+        private static ArrayList<NodeElement> searchElement(ArrayList<Node> context, char oper1, String str1, char oper2, String str2) {
+            switch (oper1) {
                 case 0:
                 case ' ':
-                    for (Node cNode : context) {
-                        findNodes = mergeNodes(findNodes, cNode.getElementsByTagName(str1));
-                    }
-                    break;
                 case '#':
-                    for (Node cNode : context) {
-                        findNodes = mergeNodes(findNodes, cNode.getElementById(str1));
-                    }
-                    break;
                 case '.':
-                    for (Node cNode : context) {
-                        findNodes = mergeNodes(findNodes, cNode.getElementsByClassName(str1));
-                    }
-                    break;
-                case '>':
-                    findNodes = filterChildElementsByTagName(context, str1);
-                    break;
-                case '+':
-                    findNodes = filterNextElementsByTagName(context, str1, true);
-                    break;
+                    return searchDescendants(context, oper1, str1);
+                case '>'://子元素各有唯一父节点，上下文节点不嵌套时已按文档顺序排列
+                    ArrayList<NodeElement> children = filterChildElementsByTagName(context, str1);
+                    return hasNested(context) ? documentOrder(children) : children;
+                case '+'://上下文节点不嵌套时后续节点按文档顺序排列
+                    ArrayList<NodeElement> next = distinct(filterNextElementsByTagName(context, str1, true));
+                    return hasNested(context) ? documentOrder(next) : next;
                 case '~':
-                    findNodes = filterNextElementsByTagName(context, str1, false);
-                    break;
-                case ':':
-                    findNodes = filterElementsByPseudoSelector(context, str1);
-                    break;
+                    return documentOrder(distinct(filterNextElementsByTagName(context, str1, false)));
                 case '[':
-                    findNodes = filterElementsByAttr(context, str1, str2, oper2);
-                    break;
+                    return filterElementsByAttr(context, str1, str2, oper2);
                 default:
-                    break;
+                    return new ArrayList<NodeElement>();
             }
-            return mergeNodes(new ArrayList<NodeElement>(), findNodes);
         }
 
         /**
@@ -843,69 +1424,91 @@ public class DomParser {
          */
         private static ArrayList<NodeElement> filterElementsByAttr(ArrayList<Node> context, String attrName, String attrValue, char oper) {
             ArrayList<NodeElement> result = new ArrayList<NodeElement>();
+            DocumentIndex rootIndex = context.isEmpty() ? null : context.get(0).getRootIndex();
+            ArrayList<DocumentIndex.Entry> entries = rootIndex == null ? null : rootIndex.lookup(attrName, oper, attrValue);
+            if (entries != null) {//以属性值索引判断
+                Collection<NodeElement> matches;
+                if (entries.size() == 1) {
+                    matches = entries.get(0).elements;
+                } else {
+                    matches = new HashSet<NodeElement>();
+                    for (DocumentIndex.Entry entry : entries) {
+                        matches.addAll(entry.elements);
+                    }
+                }
+                for (Node node : context) {
+                    if (node instanceof NodeElement && matches.contains(node)) {
+                        result.add((NodeElement) node);
+                    }
+                }
+                return result;
+            }
             for (Node node : context) {
-                if (node instanceof NodeElement) {
-                    NodeElement element = (NodeElement) node;
-                    if (attrValue == null) {//need attribute exist
-                        if (element.getAttr(attrName) != null) {
-                            result.add(element);
+                if (node instanceof NodeElement && matchAttr((NodeElement) node, attrName, attrValue, oper)) {
+                    result.add((NodeElement) node);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 判断元素是否满足属性选择器
+         *
+         * @param element 元素
+         * @param attrName 属性名称
+         * @param attrValue 属性值，为null时只需属性存在
+         * @param oper 操作符
+         * @return 是否满足
+         */
+        private static boolean matchAttr(NodeElement element, String attrName, String attrValue, char oper) {
+            if (attrValue == null) {//need attribute exist
+                return element.getAttr(attrName) != null;
+            }
+            return matchAttrValue(element.getAttrValue(attrName), attrValue, oper);
+        }
+
+        /**
+         * 判断属性值是否满足属性选择器
+         *
+         * @param getValue 元素的属性值，为null时不满足
+         * @param attrValue 选择器中的属性值
+         * @param oper 操作符
+         * @return 是否满足
+         */
+        private static boolean matchAttrValue(String getValue, String attrValue, char oper) {
+            if (getValue == null) {
+                return false;
+            }
+            switch (oper) {
+                case 0:
+                case ' ':
+                    return attrValue.equals(getValue);
+                case '~':
+                    String[] getValues = getValue.split("\\s");
+                    for (String val : getValues) {
+                        if (attrValue.equals(val)) {
+                            return true;
                         }
-                    } else {
-                        String getValue = element.getAttrValue(attrName);
-                        if (getValue != null) {
-                            switch (oper) {
-                                case 0:
-                                case ' ':
-                                    if (attrValue.equals(getValue)) {
-                                        result.add(element);
-                                    }
-                                    break;
-                                case '~':
-                                    String[] getValues = getValue.split("\\s");
-                                    for (String val : getValues) {
-                                        if (attrValue.equals(val)) {
-                                            result.add(element);
-                                            break;
-                                        }
-                                    }
-                                    break;
-                                case '^':
-                                    if (getValue.startsWith(attrValue)) {
-                                        result.add(element);
-                                    }
-                                    break;
-                                case '$':
-                                    if (getValue.endsWith(attrValue)) {
-                                        result.add(element);
-                                    }
-                                    break;
-                                case '*':
-                                    if (getValue.indexOf(attrValue) >= 0) {
-                                        result.add(element);
-                                    }
-                                    break;
-                                case '|':
-                                    String[] values1 = getValue.split("-");
-                                    String[] values2 = attrValue.split("-");
-                                    boolean match = true;
-                                    for (int i = 0; i < values2.length; i++) {
-                                        if (!values2[i].equals(values1[i])) {
-                                            match = false;
-                                            break;
-                                        }
-                                    }
-                                    if (match) {
-                                        result.add(element);
-                                    }
-                                    break;
-                                default:
-                                    break;
-                            }
+                    }
+                    return false;
+                case '^':
+                    return getValue.startsWith(attrValue);
+                case '$':
+                    return getValue.endsWith(attrValue);
+                case '*':
+                    return getValue.indexOf(attrValue) >= 0;
+                case '|':
+                    String[] values1 = getValue.split("-");
+                    String[] values2 = attrValue.split("-");
+                    for (int i = 0; i < values2.length; i++) {
+                        if (!values2[i].equals(values1[i])) {
+                            return false;
                         }
                     }
-                }
+                    return true;
+                default:
+                    return false;
             }
-            return result;
         }
 
         /**
@@ -919,8 +1522,9 @@ public class DomParser {
             ArrayList<NodeElement> result = new ArrayList<NodeElement>();
             boolean addAll = "*".equals(tagName);
             for (Node node : context) {
-                if (node.children != null) {
-                    for (Node child : node.children) {
+                ArrayList<Node> children = node.getChildren();
+                if (children != null) {
+                    for (Node child : children) {
                         if (child instanceof NodeElement) {
                             NodeElement element = (NodeElement) child;
                             if (addAll || tagName.equals(element.name)) {
@@ -933,23 +1537,30 @@ public class DomParser {
             return result;
         }
 
+        /**
+         * 解析伪选择器的序号参数
+         *
+         * @param inner 括号内的参数
+         * @return 序号，不是整数时返回-1
+         */
+        private static int parseNth(String inner) {
+            try {
+                return Integer.parseInt(inner);
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+
         /**
          * 通过伪选择器过滤元素
          *
          * @param context 上下文节点组
-         * @param selector 选择器
+         * @param selector 小写的伪选择器名
+         * @param nth 序号参数，没有或无效时为-1
          * @return 过滤后的结果节点
          */
-        private static ArrayList<NodeElement> filterElementsByPseudoSelector(ArrayList<Node> context, String selector) {
+        private static ArrayList<NodeElement> filterElementsByPseudoSelector(ArrayList<Node> context, String selector, int nth) {
             ArrayList<NodeElement> result = new ArrayList<NodeElement>();
-            selector = selector.toLowerCase();
-            String inner = null;
-            int startIndex = selector.indexOf('(');
-            if (startIndex >= 0) {
-                int endIndex = selector.indexOf(')');
-                inner = selector.substring(startIndex + 1, endIndex);
-                selector = selector.substring(0, startIndex);
-            }
             for (Node node : context) {
                 if ("root".equals(selector)) {
                     if (node instanceof NodeElement) {
@@ -959,132 +1570,53 @@ public class DomParser {
                         }
                         result.add(element);
                     }
-                } else if ("nth-child".equals(selector)) {
-                    try {
-                        int index = Integer.parseInt(inner);
-                        if (node instanceof NodeElement && node.parent != null) {
-                            NodeElement element = (NodeElement) node;
-                            ArrayList<NodeElement> children = node.parent.getChildElements();
-                            if (index >= 0 && index < children.size()) {
-                                if (children.get(index).equals(element)) {
-                                    result.add(element);
-                                }
-                            }
-                        }
-                    } catch (Exception ex) {
-                    }
-                } else if ("nth-last-child".equals(selector)) {
-                    try {
-                        int index = Integer.parseInt(inner);
-                        if (node instanceof NodeElement && node.parent != null) {
-                            NodeElement element = (NodeElement) node;
-                            ArrayList<NodeElement> children = node.parent.getChildElements();
-                            int size = children.size();
-                            if (index >= 0 && index < size) {
-                                if (children.get(size - index - 1).equals(element)) {
-                                    result.add(element);
-                                }
-                            }
-                        }
-                    } catch (Exception ex) {
-                    }
-                } else if ("nth-of-type".equals(selector)) {
-                    try {
-                        int index = Integer.parseInt(inner);
-                        if (node instanceof NodeElement && node.parent != null) {
-                            NodeElement element = (NodeElement) node;
-                            ArrayList<NodeElement> children = node.parent.getChildElements(element.name);
-                            if (index >= 0 && index < children.size()) {
-                                if (children.get(index).equals(element)) {
-                                    result.add(element);
-                                }
-                            }
-                        }
-                    } catch (Exception ex) {
-                    }
-                } else if ("nth-last-of-type".equals(selector)) {
-                    try {
-                        int index = Integer.parseInt(inner);
-                        if (node instanceof NodeElement && node.parent != null) {
-                            NodeElement element = (NodeElement) node;
-                            ArrayList<NodeElement> children = node.parent.getChildElements(element.name);
-                            int size = children.size();
-                            if (index >= 0 && index < size) {
-                                if (children.get(size - index - 1).equals(element)) {
-                                    result.add(element);
-                                }
-                            }
-                        }
-                    } catch (Exception ex) {
-                    }
-                } else if ("first-child".equals(selector)) {
-                    if (node instanceof NodeElement && node.parent != null) {
-                        NodeElement element = (NodeElement) node;
-                        ArrayList<NodeElement> children = node.parent.getChildElements();
-                        if (!children.isEmpty()) {
-                            if (children.get(0).equals(element)) {
-                                result.add(element);
-                            }
-                        }
-                    }
-                } else if ("last-child".equals(selector)) {
-                    if (node instanceof NodeElement && node.parent != null) {
-                        NodeElement element = (NodeElement) node;
-                        ArrayList<NodeElement> children = node.parent.getChildElements();
-                        if (!children.isEmpty()) {
-                            if (children.get(children.size() - 1).equals(element)) {
-                                result.add(element);
-                            }
-                        }
-                    }
-                } else if ("first-of-type".equals(selector)) {
-                    if (node instanceof NodeElement && node.parent != null) {
-                        NodeElement element = (NodeElement) node;
-                        ArrayList<NodeElement> children = node.parent.getChildElements(element.name);
-                        if (!children.isEmpty()) {
-                            if (children.get(0).equals(element)) {
-                                result.add(element);
-                            }
-                        }
-                    }
-                } else if ("last-of-type".equals(selector)) {
-                    if (node instanceof NodeElement && node.parent != null) {
-                        NodeElement element = (NodeElement) node;
-                        ArrayList<NodeElement> children = node.parent.getChildElements(element.name);
-                        if (!children.isEmpty()) {
-                            if (children.get(children.size() - 1).equals(element)) {
-                                result.add(element);
-                            }
-                        }
-                    }
-                } else if ("only-child".equals(selector)) {
-                    if (node instanceof NodeElement && node.parent != null) {
-                        NodeElement element = (NodeElement) node;
-                        ArrayList<NodeElement> children = node.parent.getChildElements();
-                        if (children.size() == 1) {
-                            result.add(element);
-                        }
-                    }
-                } else if ("only-of-type".equals(selector)) {
-                    if (node instanceof NodeElement && node.parent != null) {
-                        NodeElement element = (NodeElement) node;
-                        ArrayList<NodeElement> children = node.parent.getChildElements(element.name);
-                        if (children.size() == 1) {
-                            result.add(element);
-                        }
-                    }
-                } else if ("empty".equals(selector)) {
-                    if (node instanceof NodeElement) {
-                        NodeElement element = (NodeElement) node;
-                        if (element.children == null || element.children.isEmpty()) {
-                            result.add(element);
-                        }
-                    }
+                } else if (node instanceof NodeElement && matchPseudo((NodeElement) node, selector, nth)) {
+                    result.add((NodeElement) node);
                 }
             }
             return result;
         }
 
+        /**
+         * 判断元素是否满足伪选择器，不处理root
+         *
+         * @param element 元素
+         * @param selector 小写的伪选择器名
+         * @param nth 序号参数，没有或无效时为-1
+         * @return 是否满足
+         */
+        private static boolean matchPseudo(NodeElement element, String selector, int nth) {
+            if ("empty".equals(selector)) {
+                ArrayList<Node> children = element.getChildren();
+                return children == null || children.isEmpty();
+            }
+            if (element.parent == null) {
+                return false;
+            }
+            ArrayList<NodeElement> children;
+            if ("nth-child".equals(selector) || "nth-last-child".equals(selector) || "first-child".equals(selector)
+                    || "last-child".equals(selector) || "only-child".equals(selector)) {
+                children = element.parent.getChildElements();
+            } else if ("nth-of-type".equals(selector) || "nth-last-of-type".equals(selector) || "first-of-type".equals(selector)
+                    || "last-of-type".equals(selector) || "only-of-type".equals(selector)) {
+                children = element.parent.getChildElements(element.name);
+            } else {
+                return false;
+            }
+            int size = children.size();
+            if ("nth-child".equals(selector) || "nth-of-type".equals(selector)) {
+                return nth >= 0 && nth < size && children.get(nth).equals(element);
+            } else if ("nth-last-child".equals(selector) || "nth-last-of-type".equals(selector)) {
+                return nth >= 0 && nth < size && children.get(size - nth - 1).equals(element);
+            } else if ("first-child".equals(selector) || "first-of-type".equals(selector)) {
+                return size > 0 && children.get(0).equals(element);
+            } else if ("last-child".equals(selector) || "last-of-type".equals(selector)) {
+                return size > 0 && children.get(size - 1).equals(element);
+            } else {
+                return size == 1;
+            }
+        }
+
         /**
          * 过滤后续节点
          *
@@ -1136,6 +1668,46 @@ public class DomParser {
             }
             return level;
         }
+
+        /**
+         * 为以本节点为根的文档建立索引，之后按标签名、ID和类名查找元素时使用索引，
+         * 并在addChild、removeChild、setParent、setAttr和inner时更新
+         *
+         * @param attrNames 需要建立属性值索引的属性名
+         * @return 类本身
+         */
+        public Node createIndex(String... attrNames) {
+            if (parent != null) {
+                throw new IllegalStateException("index can only be created on the document root");
+            }
+            index = new DocumentIndex(attrNames.length > 0 ? attrNames : null);
+            ArrayList<Node> list = getChildren();
+            if (list != null) {
+                for (Node child : list) {
+                    index.addTree(child);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 获取所在文档根节点的索引
+         *
+         * @return 文档索引，没有索引时返回null
+         */
+        DocumentIndex getRootIndex() {
+            Node root = this;
+            while (root.parent != null) {
+                root = root.parent;
+            }
+            return root.index;
+        }
+
+        /**
+         * 构造延迟构造的子节点，访问子节点组前调用
+         */
+        protected void loadChildren() {
+        }
     }
 
     /**
@@ -1147,6 +1719,10 @@ public class DomParser {
          * 文本
          */
         public String text;
+        /**
+         * 文本的内容源视图，text为null时使用
+         */
+        private CharSequence textView;
 
         /**
          * 文本节点构造函数
@@ -1157,9 +1733,31 @@ public class DomParser {
             this.text = text;
         }
 
+        /**
+         * 获取文本
+         *
+         * @return 文本
+         */
+        public String getText() {
+            if (text == null && textView != null) {
+                text = textView.toString();
+                textView = null;
+            }
+            return text;
+        }
+
+        /**
+         * 获取文本，以源内容视图解析时不创建字符串
+         *
+         * @return 文本
+         */
+        public CharSequence getTextSequence() {
+            return text != null ? text : textView;
+        }
+
         @Override
         public String toString(boolean format, String space, String line, int levelref) {
-            return text;
+            return text != null || textView == null ? text : textView.toString();
         }
     }
 
@@ -1172,6 +1770,10 @@ public class DomParser {
          * 注释
          */
         public String comment;
+        /**
+         * 注释的内容源视图，comment为null时使用
+         */
+        private CharSequence commentView;
 
         /**
          * 注释节点构造函数
@@ -1182,9 +1784,31 @@ public class DomParser {
             this.comment = comment;
         }
 
+        /**
+         * 获取注释
+         *
+         * @return 注释
+         */
+        public String getComment() {
+            if (comment == null && commentView != null) {
+                comment = commentView.toString();
+                commentView = null;
+            }
+            return comment;
+        }
+
+        /**
+         * 获取注释，以源内容视图解析时不创建字符串
+         *
+         * @return 注释
+         */
+        public CharSequence getCommentSequence() {
+            return comment != null ? comment : commentView;
+        }
+
         @Override
         public String toString(boolean format, String space, String line, int levelref) {
-            return "<!--" + comment + "-->";
+            return "<!--" + getCommentSequence() + "-->";
         }
     }
 
@@ -1197,6 +1821,10 @@ public class DomParser {
          * CDATA部件内容
          */
         public String content;
+        /**
+         * CDATA部件内容的内容源视图，content为null时使用
+         */
+        private CharSequence contentView;
 
         /**
          * CDATA部件节点构造函数
@@ -1207,9 +1835,31 @@ public class DomParser {
             this.content = content;
         }
 
+        /**
+         * 获取CDATA部件内容
+         *
+         * @return CDATA部件内容
+         */
+        public String getContent() {
+            if (content == null && contentView != null) {
+                content = contentView.toString();
+                contentView = null;
+            }
+            return content;
+        }
+
+        /**
+         * 获取CDATA部件内容，以源内容视图解析时不创建字符串
+         *
+         * @return CDATA部件内容
+         */
+        public CharSequence getContentSequence() {
+            return content != null ? content : contentView;
+        }
+
         @Override
         public String toString(boolean format, String space, String line, int levelref) {
-            return "<![CDATA[" + content + "]]>";
+            return "<![CDATA[" + getContentSequence() + "]]>";
         }
     }
 
@@ -1326,13 +1976,41 @@ public class DomParser {
          */
         public String name;
         /**
-         * 元素节点属性
+         * 元素节点属性，延迟解析属性时在首次访问属性前为null，可通过getAttrs获取
          */
         public ArrayList<Attribute> attrs;
         /**
          * 是否为闭合标签（无内容）
          */
         public boolean closed;
+        /**
+         * 延迟解析的原始属性内容，首次访问属性时解析到attrs
+         */
+        private CharSequence rawAttrs;
+        /**
+         * 延迟构造子节点的构造状态，子节点构造后为null
+         */
+        private BuildState lazyState;
+        /**
+         * 延迟构造子节点的内容起止索引
+         */
+        private int lazyStart, lazyEnd;
+        /**
+         * 元素内容在源内容中的起止索引，即开始标签之后到结束标签之前，没有结束标签时为-1
+         */
+        private int contentStart = -1, contentEnd = -1;
+        /**
+         * 元素在文档中的顺序，由文档索引排序时编号
+         */
+        private int order;
+        /**
+         * 小写的元素名称，与lowerOf对应
+         */
+        private String lowerName;
+        /**
+         * 计算lowerName时的元素名称，name变化后重新计算
+         */
+        private String lowerOf;
 
         /**
          * 元素节点构造函数
@@ -1402,17 +2080,32 @@ public class DomParser {
          * @return 是否新增了属性
          */
         public boolean setAttr(String name, String value, boolean ignoreCase) {
+            parseRawAttrs();
             if (attrs == null) {
                 attrs = new ArrayList<Attribute>();
             }
+            DocumentIndex rootIndex = getRootIndex();
+            if (rootIndex != null) {
+                if (rootIndex.covers(name)) {
+                    rootIndex.remove(this);
+                } else {
+                    rootIndex = null;
+                }
+            }
+            boolean added;
             Attribute attr = getAttr(name, ignoreCase);
             if (attr != null) {
-                attr.value = value;
-                return false;
+                attr.setValue(value);
+                added = false;
             } else {
                 attrs.add(new Attribute(name, value));
-                return true;
+                added = true;
             }
+            if (rootIndex != null) {
+                rootIndex.add(this);
+                rootIndex.version++;//重新加入后顺序改变
+            }
+            return added;
         }
 
         /**
@@ -1433,6 +2126,7 @@ public class DomParser {
          * @return 属性对象
          */
         public Attribute getAttr(String name, boolean ignoreCase) {
+            parseRawAttrs();
             if (attrs != null) {
                 for (Attribute attr : attrs) {
                     if (strEqual(attr.name, name, ignoreCase)) {
@@ -1462,22 +2156,91 @@ public class DomParser {
          */
         public String getAttrValue(String name, boolean ignoreCase) {
             Attribute attr = getAttr(name, true);
-            return attr == null ? null : attr.value;
+            return attr == null ? null : attr.getValue();
+        }
+
+        /**
+         * 获取属性组
+         *
+         * @return 属性组
+         */
+        public ArrayList<Attribute> getAttrs() {
+            parseRawAttrs();
+            return attrs;
         }
 
         @Override
-        public String toString(boolean format, String space, String line, int levelref) {
-            StringBuilder sb = new StringBuilder("<");
-            sb.append(name);
-            if (attrs != null) {
+        protected void loadChildren() {
+            if (lazyState != null) {
+                BuildState state = lazyState;
+                lazyState = null;
+                build(this, state, lazyStart, lazyEnd);
+            }
+        }
+
+        /**
+         * 获取小写的元素名称，解析得到的元素使用符号表中预先计算的小写名称
+         *
+         * @return 小写的元素名称
+         */
+        protected String getLowerName() {
+            if (lowerOf != name) {
+                lowerOf = name;
+                lowerName = name == null ? null : name.toLowerCase();
+            }
+            return lowerName;
+        }
+
+        /**
+         * 解析延迟解析的原始属性
+         */
+        private void parseRawAttrs() {
+            if (rawAttrs != null) {
+                CharSequence raw = rawAttrs;
+                rawAttrs = null;
+                AttrCollector collector = new AttrCollector();
+                collector.attrs = attrs != null ? attrs : new ArrayList<Attribute>();
+                if (raw instanceof Slice) {
+                    Slice slice = (Slice) raw;
+                    collector.slice = true;
+                    scanAttrs(new StringSource(slice.str), slice.start, slice.end, collector);
+                } else if (raw instanceof ByteSlice) {
+                    ByteSlice slice = (ByteSlice) raw;
+                    collector.slice = true;
+                    scanAttrs(slice.source, slice.start, slice.end, collector);
+                } else {
+                    String str = raw.toString();
+                    scanAttrs(new StringSource(str), 0, str.length(), collector);
+                }
+                attrs = collector.attrs;
+            }
+        }
+
+        /**
+         * 打印属性，未解析的原始属性按原样打印
+         *
+         * @param sb 字符串缓冲
+         */
+        protected void appendAttrs(StringBuilder sb) {
+            if (rawAttrs != null) {
+                sb.append(rawAttrs);
+            } else if (attrs != null) {
                 for (Attribute attr : attrs) {
                     sb.append(" ").append(attr.toString());
                 }
             }
+        }
+
+        @Override
+        public String toString(boolean format, String space, String line, int levelref) {
+            StringBuilder sb = new StringBuilder("<");
+            sb.append(name);
+            appendAttrs(sb);
             if (closed) {
                 return sb.append("/>").toString();
             } else {
                 sb.append(">");
+                loadChildren();
                 boolean addPrefixSuffix = format && children != null && children.size() > 0;
                 if (addPrefixSuffix) {
                     sb.append(line);
@@ -1504,6 +2267,10 @@ public class DomParser {
          * 节点内容
          */
         public String content;
+        /**
+         * 节点内容的内容源视图，content为null时使用
+         */
+        private CharSequence contentView;
 
         /**
          * 特殊节点构造函数
@@ -1518,21 +2285,40 @@ public class DomParser {
             this.closed = content == null;
         }
 
+        /**
+         * 获取节点内容
+         *
+         * @return 节点内容
+         */
+        public String getContent() {
+            if (content == null && contentView != null) {
+                content = contentView.toString();
+                contentView = null;
+            }
+            return content;
+        }
+
+        /**
+         * 获取节点内容，以源内容视图解析时不创建字符串
+         *
+         * @return 节点内容
+         */
+        public CharSequence getContentSequence() {
+            return content != null ? content : contentView;
+        }
+
         @Override
         public String toString(boolean format, String space, String line, int levelref) {
             StringBuilder sb = new StringBuilder("<");
             sb.append(name);
-            if (attrs != null) {
-                for (Attribute attr : attrs) {
-                    sb.append(" ").append(attr.toString());
-                }
-            }
+            appendAttrs(sb);
             if (closed) {
                 return sb.append("/>").toString();
             } else {
                 sb.append(">");
-                if (content != null) {
-                    sb.append(content);
+                CharSequence contentSeq = getContentSequence();
+                if (contentSeq != null) {
+                    sb.append(contentSeq);
                 }
                 return sb.append("</").append(name).append(">").toString();
             }
@@ -1552,6 +2338,10 @@ public class DomParser {
          * 属性值
          */
         public String value;
+        /**
+         * 属性值的内容源视图，value为null时使用
+         */
+        private CharSequence valueView;
         /**
          * 引用字符，无引用字符则为0
          */
@@ -1591,343 +2381,5885 @@ public class DomParser {
             this.quote = quote;
         }
 
+        /**
+         * 获取属性值
+         *
+         * @return 属性值
+         */
+        public String getValue() {
+            if (value == null && valueView != null) {
+                value = valueView.toString();
+                valueView = null;
+            }
+            return value;
+        }
+
+        /**
+         * 获取属性值，以源内容视图解析时不创建字符串
+         *
+         * @return 属性值
+         */
+        public CharSequence getValueSequence() {
+            return value != null ? value : valueView;
+        }
+
+        /**
+         * 设置属性值
+         *
+         * @param value 属性值
+         */
+        public void setValue(String value) {
+            this.value = value;
+            this.valueView = null;
+        }
+
         @Override
         public String toString() {
+            CharSequence valueSeq = getValueSequence();
             if (quote == NONE_QUOTE) {
-                if (value == null) {
+                if (valueSeq == null) {
                     return name;
                 } else {
-                    return name + "=" + value;
+                    return name + "=" + valueSeq;
                 }
             } else {
-                if (value == null) {
+                if (valueSeq == null) {
                     return name;
                 } else {
-                    return name + "=" + quote + value + quote;
+                    return name + "=" + quote + valueSeq + quote;
                 }
             }
         }
     }
     /**
-     * 文档根节点
+     * 解析选项
      */
-    public Node document;
+    public static class Options {
 
-    /**
-     * 文档构造函数
-     */
-    private DomParser(Node document) {
-        this.document = document;
-    }
+        /**
+         * 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+         */
+        public boolean xmlmode;
+        /**
+         * 是否以源内容视图保存文本、注释、CDATA、特殊标签内容和属性值，
+         * 节点共享内容源，只在获取字符串时创建字符串<br/>
+         * 此时公开字段NodeText.text、NodeComment.comment、NodeCDATA.content、NodeSpecial.content
+         * 和Attribute.value为null，只能通过getText、getComment、getContent、getValue等方法获取
+         */
+        public boolean slice;
+        /**
+         * 是否延迟解析属性，元素只保存原始属性内容，首次访问属性时才解析<br/>
+         * 此时公开字段NodeElement.attrs在首次调用getAttrs、getAttr或getAttrValue前为null，需通过这些方法访问属性
+         */
+        public boolean lazyAttrs;
+        /**
+         * 是否延迟构造子节点，元素只记录内容的起止索引，首次访问子节点时才构造<br/>
+         * 此时公开字段Node.children在首次调用getChildren等方法前为null，直接读取字段会把元素误认为没有子节点，
+         * 需通过getChildren、getChildElements、getChild等方法访问子节点
+         */
+        public boolean lazyChildren;
+        /**
+         * 是否记录节点在源内容中的位置，用于局部更新；记录位置时不延迟构造子节点
+         */
+        public boolean spans;
+        /**
+         * 是否建立标签名、ID和类名索引，修改节点时同步更新；建立索引时不延迟构造子节点
+         */
+        public boolean index;
+        /**
+         * 需要建立属性值索引的属性名，用于[name=value]、[name^=value]和[name~=value]选择器，为null时不建立
+         */
+        public String[] indexAttrs;
 
-    @Override
-    public String toString() {
-        return document.toString();
-    }
+        /**
+         * 设置是否以XML解析
+         *
+         * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+         * @return 类本身
+         */
+        public Options xmlmode(boolean xmlmode) {
+            this.xmlmode = xmlmode;
+            return this;
+        }
 
-    /**
-     * 创建元素节点
-     *
-     * @param name 节点标签名
-     * @return 元素节点对象
-     */
-    public static NodeElement createElement(String name) {
-        return new NodeElement(name);
-    }
+        /**
+         * 设置是否以源内容视图保存内容，开启后内容字段为null，只能通过获取方法读取内容
+         *
+         * @param slice 是否以源内容视图保存内容
+         * @return 类本身
+         */
+        public Options slice(boolean slice) {
+            this.slice = slice;
+            return this;
+        }
 
-    /**
-     * 创建空文档
-     *
-     * @return 空文档对象
-     */
-    public static DomParser create() {
-        return new DomParser(new Node());
+        /**
+         * 设置是否延迟解析属性，开启后attrs字段在首次通过方法访问属性前为null
+         *
+         * @param lazyAttrs 是否延迟解析属性
+         * @return 类本身
+         */
+        public Options lazyAttrs(boolean lazyAttrs) {
+            this.lazyAttrs = lazyAttrs;
+            return this;
+        }
+
+        /**
+         * 设置是否延迟构造子节点，开启后children字段在首次通过方法访问子节点前为null
+         *
+         * @param lazyChildren 是否延迟构造子节点
+         * @return 类本身
+         */
+        public Options lazyChildren(boolean lazyChildren) {
+            this.lazyChildren = lazyChildren;
+            return this;
+        }
+
+        /**
+         * 设置是否记录节点在源内容中的位置
+         *
+         * @param spans 是否记录节点位置
+         * @return 类本身
+         */
+        public Options spans(boolean spans) {
+            this.spans = spans;
+            return this;
+        }
+
+        /**
+         * 设置是否建立文档索引
+         *
+         * @param index 是否建立文档索引
+         * @return 类本身
+         */
+        public Options index(boolean index) {
+            this.index = index;
+            return this;
+        }
+
+        /**
+         * 设置需要建立属性值索引的属性名，同时建立文档索引
+         *
+         * @param names 属性名
+         * @return 类本身
+         */
+        public Options indexAttrs(String... names) {
+            this.indexAttrs = names;
+            return this;
+        }
     }
 
     /**
-     * 创建构造的文档
-     *
-     * @param document 文档根节点
-     * @return 文档对象
+     * 预编译的CSS选择器，不可变且线程安全，可反复应用于任意节点<br/>
+     * 支持的选择器与{@link Node#search(String)}相同，逗号分隔的选择器组一起编译并在一次遍历中查找
      */
-    public static DomParser create(Node document) {
-        return new DomParser(document);
+    public static final class Selector {
+
+        /**
+         * 选择器字符串
+         */
+        private final String text;
+        /**
+         * 查找步骤，为null时选择器为空
+         */
+        private final Step[] steps;
+        /**
+         * 复合选择器组，用于从右向左匹配，为null时只能从左向右逐步查找
+         */
+        private final Compound[] compounds;
+        /**
+         * 逗号分隔的选择器组，为null时不是选择器组
+         */
+        private final Selector[] group;
+
+        /**
+         * 查找步骤，对上下文节点组应用一次选择器
+         */
+        private static final class Step {
+
+            /**
+             * 无效步骤，结果为null且不改变上下文
+             */
+            static final Step NONE = new Step((char) 0, null, ' ', null);
+            /**
+             * 操作字符(' ','.','#',':','>','+','~','[')
+             */
+            final char oper1;
+            /**
+             * 标签名、ID、类名或属性名；伪选择器时为小写的伪选择器名
+             */
+            final String str1;
+            /**
+             * 属性操作符
+             */
+            final char oper2;
+            /**
+             * 属性值
+             */
+            final String str2;
+            /**
+             * 伪选择器的序号参数，没有或无效时为-1
+             */
+            final int nth;
+
+            Step(char oper1, String str1, char oper2, String str2) {
+                this(oper1, str1, oper2, str2, -1);
+            }
+
+            Step(char oper1, String str1, char oper2, String str2, int nth) {
+                this.oper1 = oper1;
+                this.str1 = str1;
+                this.oper2 = oper2;
+                this.str2 = str2;
+                this.nth = nth;
+            }
+
+            /**
+             * 创建伪选择器步骤，预先解析伪选择器名和参数
+             *
+             * @param selector 伪选择器
+             * @return 查找步骤
+             */
+            static Step pseudo(String selector) {
+                selector = selector.toLowerCase();
+                String inner = null;
+                int startIndex = selector.indexOf('(');
+                if (startIndex >= 0) {
+                    int endIndex = selector.indexOf(')');
+                    inner = selector.substring(startIndex + 1, endIndex);
+                    selector = selector.substring(0, startIndex);
+                }
+                return new Step(':', selector, ' ', null, Node.parseNth(inner));
+            }
+
+            /**
+             * 对上下文节点组应用本步骤
+             *
+             * @param context 上下文节点组
+             * @return 查找到的结果
+             */
+            ArrayList<NodeElement> apply(ArrayList<Node> context) {
+                if (oper1 == ':') {
+                    return Node.distinct(Node.filterElementsByPseudoSelector(context, str1, nth));
+                }
+                return Node.searchElement(context, oper1, str1, oper2, str2);
+            }
+
+            /**
+             * 判断元素是否满足本过滤步骤（属性选择器或伪选择器）
+             *
+             * @param element 元素
+             * @return 是否满足
+             */
+            boolean filter(NodeElement element) {
+                if (oper1 == ':') {
+                    return Node.matchPseudo(element, str1, nth);
+                }
+                return Node.matchAttr(element, str1, str2, oper2);
+            }
+        }
+
+        /**
+         * 复合选择器，由一个查找步骤和其后的过滤步骤组成，查找步骤的操作字符即与左侧复合选择器的关系
+         */
+        private static final class Compound {
+
+            /**
+             * 查找步骤(' ','.','#','>','+','~')
+             */
+            final Step test;
+            /**
+             * 小写的标签名，用于' '
+             */
+            final String lowerName;
+            /**
+             * 过滤步骤
+             */
+            final Step[] filters;
+
+            Compound(Step test, Step[] filters) {
+                this.test = test;
+                this.lowerName = test.str1.toLowerCase();
+                this.filters = filters;
+            }
+
+            /**
+             * 判断元素是否满足查找步骤的名称条件
+             *
+             * @param element 元素
+             * @return 是否满足
+             */
+            boolean matchName(NodeElement element) {
+                switch (test.oper1) {
+                    case '#':
+                        return strEqual(test.str1, element.getAttrValue("id"), false);
+                    case '.':
+                        return hasToken(element.getAttrValue("class"), test.str1);
+                    case '>':
+                    case '+':
+                    case '~':
+                        return "*".equals(test.str1) || test.str1.equals(element.name);
+                    default:
+                        return "*".equals(test.str1) || lowerName.equals(element.getLowerName());
+                }
+            }
+
+            /**
+             * 判断元素是否满足本复合选择器，不判断与左侧的关系
+             *
+             * @param element 元素
+             * @return 是否满足
+             */
+            boolean match(NodeElement element) {
+                if (!matchName(element)) {
+                    return false;
+                }
+                for (Step filter : filters) {
+                    if (!filter.filter(element)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * 判断开始标签是否满足本复合选择器，不判断与左侧的关系，只支持属性过滤步骤
+             *
+             * @param name 标签名
+             * @param lower 小写的标签名
+             * @param attrs 属性组，本复合选择器不需要属性时可为null
+             * @return 是否满足
+             */
+            boolean matchTag(String name, String lower, ArrayList<Attribute> attrs) {
+                switch (test.oper1) {
+                    case '#':
+                        if (!strEqual(test.str1, attrValue(attrs, "id"), false)) {
+                            return false;
+                        }
+                        break;
+                    case '.':
+                        if (!hasToken(attrValue(attrs, "class"), test.str1)) {
+                            return false;
+                        }
+                        break;
+                    case '>':
+                        if (!"*".equals(test.str1) && !test.str1.equals(name)) {
+                            return false;
+                        }
+                        break;
+                    default:
+                        if (!"*".equals(test.str1) && !lowerName.equals(lower)) {
+                            return false;
+                        }
+                        break;
+                }
+                for (Step filter : filters) {
+                    if (filter.str2 == null ? findAttr(attrs, filter.str1) == null
+                            : !Node.matchAttrValue(attrValue(attrs, filter.str1), filter.str2, filter.oper2)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * 获取用于共享自动机状态的键，条件相同的复合选择器键相同
+             *
+             * @return 键
+             */
+            String key() {
+                StringBuilder key = new StringBuilder();
+                key.append('\0').append(test.oper1).append(test.oper1 == ' ' ? lowerName : test.str1);
+                for (Step filter : filters) {
+                    key.append('\0').append(filter.str1).append('\0').append(filter.oper2).append(filter.str2);
+                }
+                return key.toString();
+            }
+
+            /**
+             * 是否需要属性判断
+             *
+             * @return 是否需要
+             */
+            boolean needsAttrs() {
+                return test.oper1 == '#' || test.oper1 == '.' || filters.length > 0;
+            }
+
+            /**
+             * 查找上下文节点下可能满足本复合选择器的元素，按文档顺序排列，尚未应用过滤步骤
+             *
+             * @param context 上下文节点
+             * @return 候选元素组
+             */
+            ArrayList<NodeElement> candidates(Node context) {
+                ArrayList<Node> nodes = new ArrayList<Node>(1);
+                nodes.add(context);
+                if (test.oper1 == ' ' && filters.length > 0 && filters[0].oper1 == '[' && filters[0].str2 != null) {
+                    ArrayList<NodeElement> indexed = Node.searchIndexedAttr(nodes, test.str1,
+                            filters[0].str1, filters[0].oper2, filters[0].str2);
+                    if (indexed != null) {
+                        return indexed;
+                    }
+                }
+                switch (test.oper1) {
+                    case '#':
+                    case '.':
+                        return Node.searchDescendants(nodes, test.oper1, test.str1);
+                    default:
+                        return Node.searchDescendants(nodes, ' ', test.str1);
+                }
+            }
+        }
+
+        /**
+         * 一次从右向左匹配的状态，记录复合选择器对元素的判断结果和子节点位置
+         */
+        private final class Matcher {
+
+            /**
+             * 上下文节点
+             */
+            final Node context;
+            /**
+             * 按复合选择器位置记录的元素判断结果
+             */
+            final ArrayList<IdentityHashMap<Node, Boolean>> results;
+            /**
+             * 已计算的子节点在父节点中的位置
+             */
+            final IdentityHashMap<Node, Integer> positions = new IdentityHashMap<Node, Integer>();
+
+            Matcher(Node context) {
+                this.context = context;
+                this.results = new ArrayList<IdentityHashMap<Node, Boolean>>(compounds.length);
+                for (int i = 0; i < compounds.length; i++) {
+                    results.add(null);
+                }
+            }
+
+            /**
+             * 获取最右侧的复合选择器
+             *
+             * @return 复合选择器
+             */
+            Compound last() {
+                return compounds[compounds.length - 1];
+            }
+
+            /**
+             * 判断元素是否满足整个选择器
+             *
+             * @param element 上下文节点下的元素
+             * @return 是否满足
+             */
+            boolean matchRight(NodeElement element) {
+                int last = compounds.length - 1;
+                return compounds[last].match(element) && matchLeft(element, last);
+            }
+
+            /**
+             * 判断元素是否满足第i个复合选择器及其左侧的所有关系
+             *
+             * @param element 元素
+             * @param i 复合选择器位置
+             * @return 是否满足
+             */
+            boolean matchAt(NodeElement element, int i) {
+                if (!compounds[i].matchName(element)) {//名称条件判断代价低，不记录
+                    return false;
+                }
+                IdentityHashMap<Node, Boolean> known = results.get(i);
+                if (known == null) {
+                    known = new IdentityHashMap<Node, Boolean>();
+                    results.set(i, known);
+                } else {
+                    Boolean result = known.get(element);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                boolean result = compounds[i].match(element) && matchLeft(element, i);
+                known.put(element, result);
+                return result;
+            }
+
+            /**
+             * 判断已满足第i个复合选择器的元素与左侧复合选择器的关系是否成立
+             *
+             * @param element 元素
+             * @param i 复合选择器位置
+             * @return 是否成立
+             */
+            boolean matchLeft(NodeElement element, int i) {
+                Compound compound = compounds[i];
+                switch (compound.test.oper1) {
+                    case '>': {
+                        Node parent = element.parent;
+                        if (i == 0) {
+                            return parent == context;
+                        }
+                        return parent != context && parent instanceof NodeElement && matchAt((NodeElement) parent, i - 1);
+                    }
+                    case '+': {
+                        for (int index = position(element) - 1; index >= 0; index--) {
+                            Node sibling = element.parent.children.get(index);
+                            if (sibling instanceof NodeElement) {
+                                return matchAt((NodeElement) sibling, i - 1);
+                            }
+                        }
+                        return false;
+                    }
+                    case '~': {//元素需为某个左侧元素之后第一个满足名称条件的兄弟元素
+                        for (int index = position(element) - 1; index >= 0; index--) {
+                            Node sibling = element.parent.children.get(index);
+                            if (sibling instanceof NodeElement) {
+                                if (matchAt((NodeElement) sibling, i - 1)) {
+                                    return true;
+                                }
+                                if (compound.matchName((NodeElement) sibling)) {
+                                    return false;
+                                }
+                            }
+                        }
+                        return false;
+                    }
+                    default: {
+                        if (i == 0 && context.parent == null) {//上下文为文档根节点时所有元素都是其子孙
+                            return true;
+                        }
+                        for (Node node = element.parent; node != null; node = node.parent) {
+                            if (node == context) {
+                                return i == 0;
+                            }
+                            if (i > 0 && node instanceof NodeElement && matchAt((NodeElement) node, i - 1)) {
+                                return true;
+                            }
+                        }
+                        return false;
+                    }
+                }
+            }
+
+            /**
+             * 获取元素在父节点子节点组中的位置，首次访问某父节点时记录其所有子节点的位置
+             *
+             * @param element 有父节点的元素
+             * @return 位置
+             */
+            int position(NodeElement element) {
+                Integer position = positions.get(element);
+                if (position == null) {
+                    ArrayList<Node> children = element.parent.children;
+                    for (int index = 0; index < children.size(); index++) {
+                        positions.put(children.get(index), index);
+                    }
+                    position = positions.get(element);
+                }
+                return position;
+            }
+        }
+
+        /**
+         * search(String)使用的编译缓存
+         */
+        static final Cache CACHE = new Cache(256);
+
+        /**
+         * 按选择器字符串缓存预编译选择器，超出容量时淘汰最久未使用的项，线程安全
+         */
+        public static final class Cache {
+
+            /**
+             * 按访问顺序排列的缓存项
+             */
+            private final LinkedHashMap<String, Selector> map;
+            /**
+             * 容量
+             */
+            private int capacity;
+            /**
+             * 命中、未命中和淘汰次数
+             */
+            private long hits, misses, evictions;
+
+            /**
+             * @param capacity 容量
+             */
+            Cache(int capacity) {
+                this.capacity = capacity;
+                this.map = new LinkedHashMap<String, Selector>(16, 0.75f, true) {
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Selector> eldest) {
+                        if (size() > Cache.this.capacity) {
+                            evictions++;
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+            }
+
+            /**
+             * 获取选择器字符串对应的预编译选择器，缓存中没有时编译并加入缓存
+             *
+             * @param cssSelector css选择器
+             * @return 预编译的选择器
+             */
+            public Selector get(String cssSelector) {
+                if (cssSelector == null) {
+                    return compile(null);
+                }
+                synchronized (this) {
+                    Selector selector = map.get(cssSelector);
+                    if (selector != null) {
+                        hits++;
+                        return selector;
+                    }
+                    misses++;
+                }
+                Selector selector = compile(cssSelector);//在锁外编译，并发时可能重复编译同一选择器
+                synchronized (this) {
+                    if (capacity > 0) {
+                        map.put(cssSelector, selector);
+                    }
+                }
+                return selector;
+            }
+
+            /**
+             * 设置容量，超出的项立即淘汰
+             *
+             * @param capacity 容量，为0时不缓存
+             */
+            public synchronized void setCapacity(int capacity) {
+                if (capacity < 0) {
+                    throw new IllegalArgumentException("capacity must not be negative");
+                }
+                this.capacity = capacity;
+                Iterator<String> it = map.keySet().iterator();
+                while (map.size() > capacity && it.hasNext()) {
+                    it.next();
+                    it.remove();
+                    evictions++;
+                }
+            }
+
+            /**
+             * 获取容量
+             *
+             * @return 容量
+             */
+            public synchronized int getCapacity() {
+                return capacity;
+            }
+
+            /**
+             * 获取缓存项数
+             *
+             * @return 缓存项数
+             */
+            public synchronized int size() {
+                return map.size();
+            }
+
+            /**
+             * 获取命中次数
+             *
+             * @return 命中次数
+             */
+            public synchronized long getHits() {
+                return hits;
+            }
+
+            /**
+             * 获取未命中次数
+             *
+             * @return 未命中次数
+             */
+            public synchronized long getMisses() {
+                return misses;
+            }
+
+            /**
+             * 获取淘汰次数
+             *
+             * @return 淘汰次数
+             */
+            public synchronized long getEvictions() {
+                return evictions;
+            }
+
+            /**
+             * 清空缓存项和计数
+             */
+            public synchronized void clear() {
+                map.clear();
+                hits = 0;
+                misses = 0;
+                evictions = 0;
+            }
+        }
+
+        /**
+         * 获取search(String)使用的编译缓存
+         *
+         * @return 编译缓存
+         */
+        public static Cache cache() {
+            return CACHE;
+        }
+
+        /**
+         * 按打开的元素栈匹配多个选择器的共享自动机，相同的前缀共用状态，
+         * 每个元素的状态为满足的前缀（含左侧关系）的有序序号组，只记录满足的少数状态，开销不随选择器数量增长；
+         * 只支持子孙和子元素关系及属性过滤步骤
+         */
+        static final class StreamMatcher {
+
+            /**
+             * 没有状态
+             */
+            static final int[] EMPTY = new int[0];
+            /**
+             * 各状态的复合选择器
+             */
+            final Compound[] compounds;
+            /**
+             * 各状态的前一状态，为-1时是选择器的第一个复合选择器
+             */
+            final int[] prefixes;
+            /**
+             * 以各状态结束的选择器序号，没有时为null
+             */
+            final int[][] targets;
+            /**
+             * 按小写标签名、区分大小写的标签名、ID和类名索引的状态
+             */
+            final HashMap<String, Candidates> byLower, byName, byId, byClass;
+            /**
+             * 带相等属性过滤的标签名或任意标签状态，按小写属性名和属性值索引
+             */
+            final HashMap<String, HashMap<String, Candidates>> byAttr;
+            /**
+             * 匹配任意标签的状态
+             */
+            final Candidates wildcards;
+
+            /**
+             * 按前一状态分组的候选状态
+             */
+            static final class Candidates {
+
+                /**
+                 * 所有候选状态
+                 */
+                final int[] all;
+                /**
+                 * 没有前一状态的候选状态
+                 */
+                final int[] roots;
+                /**
+                 * 按前一状态分组的候选状态
+                 */
+                final HashMap<Integer, int[]> byPrefix = new HashMap<Integer, int[]>();
+
+                Candidates(ArrayList<Integer> states, int[] prefixes) {
+                    all = toArray(states);
+                    ArrayList<Integer> rootList = new ArrayList<Integer>();
+                    HashMap<Integer, ArrayList<Integer>> groups = new HashMap<Integer, ArrayList<Integer>>();
+                    for (int state : all) {
+                        int prefix = prefixes[state];
+                        if (prefix < 0) {
+                            rootList.add(state);
+                        } else {
+                            ArrayList<Integer> group = groups.get(prefix);
+                            if (group == null) {
+                                group = new ArrayList<Integer>();
+                                groups.put(prefix, group);
+                            }
+                            group.add(state);
+                        }
+                    }
+                    roots = toArray(rootList);
+                    for (Map.Entry<Integer, ArrayList<Integer>> entry : groups.entrySet()) {
+                        byPrefix.put(entry.getKey(), toArray(entry.getValue()));
+                    }
+                }
+            }
+            /**
+             * 是否有状态需要属性判断
+             */
+            final boolean needsAttrs;
+
+            /**
+             * @param selectors 选择器组，选择器组中的各部分都对应所在选择器的序号
+             */
+            StreamMatcher(Selector[] selectors) {
+                ArrayList<Compound> list = new ArrayList<Compound>();
+                ArrayList<Integer> prefixList = new ArrayList<Integer>();
+                ArrayList<ArrayList<Integer>> targetList = new ArrayList<ArrayList<Integer>>();
+                HashMap<String, Integer> shared = new HashMap<String, Integer>();
+                for (int index = 0; index < selectors.length; index++) {
+                    Selector selector = selectors[index];
+                    Selector[] parts = selector.group != null ? selector.group : new Selector[]{selector};
+                    for (Selector part : parts) {
+                        check(part);
+                        int state = -1;
+                        for (Compound compound : part.compounds) {
+                            String key = state + compound.key();
+                            Integer existing = shared.get(key);
+                            if (existing == null) {
+                                existing = list.size();
+                                shared.put(key, existing);
+                                list.add(compound);
+                                prefixList.add(state);
+                                targetList.add(null);
+                            }
+                            state = existing;
+                        }
+                        if (targetList.get(state) == null) {
+                            targetList.set(state, new ArrayList<Integer>());
+                        }
+                        if (!targetList.get(state).contains(index)) {
+                            targetList.get(state).add(index);
+                        }
+                    }
+                }
+                int size = list.size();
+                compounds = list.toArray(new Compound[size]);
+                prefixes = new int[size];
+                targets = new int[size][];
+                HashMap<String, ArrayList<Integer>> lowerList = new HashMap<String, ArrayList<Integer>>();
+                HashMap<String, ArrayList<Integer>> nameList = new HashMap<String, ArrayList<Integer>>();
+                HashMap<String, ArrayList<Integer>> idList = new HashMap<String, ArrayList<Integer>>();
+                HashMap<String, ArrayList<Integer>> classList = new HashMap<String, ArrayList<Integer>>();
+                HashMap<String, HashMap<String, ArrayList<Integer>>> attrList = new HashMap<String, HashMap<String, ArrayList<Integer>>>();
+                ArrayList<Integer> wildcardList = new ArrayList<Integer>();
+                boolean attrs = false;
+                for (int i = 0; i < size; i++) {
+                    prefixes[i] = prefixList.get(i);
+                    ArrayList<Integer> target = targetList.get(i);
+                    if (target != null) {
+                        targets[i] = toArray(target);
+                    }
+                    Step test = compounds[i].test;
+                    attrs |= compounds[i].needsAttrs();
+                    Step equal = test.oper1 == '#' || test.oper1 == '.' ? null : equalFilter(compounds[i]);
+                    if (equal != null) {//按属性值索引，避免大量只有属性值不同的状态逐个判断
+                        String attrName = equal.str1.toLowerCase();
+                        HashMap<String, ArrayList<Integer>> values = attrList.get(attrName);
+                        if (values == null) {
+                            values = new HashMap<String, ArrayList<Integer>>();
+                            attrList.put(attrName, values);
+                        }
+                        put(values, equal.str2, i);
+                        continue;
+                    }
+                    switch (test.oper1) {
+                        case '#':
+                            put(idList, test.str1, i);
+                            break;
+                        case '.':
+                            put(classList, test.str1, i);
+                            break;
+                        case '>':
+                            if ("*".equals(test.str1)) {
+                                wildcardList.add(i);
+                            } else {
+                                put(nameList, test.str1, i);
+                            }
+                            break;
+                        default:
+                            if ("*".equals(test.str1)) {
+                                wildcardList.add(i);
+                            } else {
+                                put(lowerList, compounds[i].lowerName, i);
+                            }
+                            break;
+                    }
+                }
+                byLower = group(lowerList);
+                byName = group(nameList);
+                byId = group(idList);
+                byClass = group(classList);
+                byAttr = new HashMap<String, HashMap<String, Candidates>>();
+                for (Map.Entry<String, HashMap<String, ArrayList<Integer>>> entry : attrList.entrySet()) {
+                    byAttr.put(entry.getKey(), group(entry.getValue()));
+                }
+                wildcards = new Candidates(wildcardList, prefixes);
+                needsAttrs = attrs;
+            }
+
+            /**
+             * 检查选择器是否可以流式匹配
+             *
+             * @param part 不是选择器组的选择器
+             */
+            private static void check(Selector part) {
+                if (part.compounds == null) {
+                    throw new IllegalArgumentException("selector not supported while streaming: " + part);
+                }
+                for (Compound compound : part.compounds) {
+                    if (compound.test.oper1 == '+' || compound.test.oper1 == '~') {
+                        throw new IllegalArgumentException("sibling selector not supported while streaming: " + part);
+                    }
+                    for (Step filter : compound.filters) {
+                        if (filter.oper1 != '[') {
+                            throw new IllegalArgumentException("pseudo selector not supported while streaming: " + part);
+                        }
+                    }
+                }
+            }
+
+            /**
+             * 获取复合选择器中第一个相等属性过滤步骤
+             *
+             * @param compound 复合选择器
+             * @return 过滤步骤，没有时为null
+             */
+            private static Step equalFilter(Compound compound) {
+                for (Step filter : compound.filters) {
+                    if (filter.str2 != null && (filter.oper2 == ' ' || filter.oper2 == 0)) {
+                        return filter;
+                    }
+                }
+                return null;
+            }
+
+            private static void put(HashMap<String, ArrayList<Integer>> map, String key, int state) {
+                ArrayList<Integer> list = map.get(key);
+                if (list == null) {
+                    list = new ArrayList<Integer>();
+                    map.put(key, list);
+                }
+                list.add(state);
+            }
+
+            private static int[] toArray(ArrayList<Integer> list) {
+                int[] array = new int[list.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = list.get(i);
+                }
+                return array;
+            }
+
+            private HashMap<String, Candidates> group(HashMap<String, ArrayList<Integer>> map) {
+                HashMap<String, Candidates> result = new HashMap<String, Candidates>();
+                for (Map.Entry<String, ArrayList<Integer>> entry : map.entrySet()) {
+                    result.put(entry.getKey(), new Candidates(entry.getValue(), prefixes));
+                }
+                return result;
+            }
+
+            /**
+             * 开始标签满足的状态，按需分配
+             */
+            private static final class Found {
+
+                int[] states = new int[4];
+                int size;
+
+                void add(int state) {
+                    if (size == states.length) {
+                        states = Arrays.copyOf(states, size << 1);
+                    }
+                    states[size++] = state;
+                }
+
+                /**
+                 * @return 有序且不重复的状态
+                 */
+                int[] toStates() {
+                    Arrays.sort(states, 0, size);
+                    int count = 0;
+                    for (int i = 0; i < size; i++) {
+                        if (count == 0 || states[count - 1] != states[i]) {
+                            states[count++] = states[i];
+                        }
+                    }
+                    return Arrays.copyOf(states, count);
+                }
+            }
+
+            /**
+             * 计算开始标签的状态，只判断标签名、ID、类名或属性值索引到的状态
+             *
+             * @param parent 父元素的状态
+             * @param ancestors 所有祖先元素状态的并集
+             * @param depth 打开的祖先元素层数
+             * @param name 标签名
+             * @param attrs 属性组，needsAttrs为false时可为null
+             * @return 状态
+             */
+            int[] open(int[] parent, int[] ancestors, int depth, String name, ArrayList<Attribute> attrs) {
+                String lower = name.toLowerCase();
+                Found found = test(null, wildcards, parent, ancestors, depth, name, lower, attrs);
+                found = test(found, byLower.get(lower), parent, ancestors, depth, name, lower, attrs);
+                found = test(found, byName.get(name), parent, ancestors, depth, name, lower, attrs);
+                if (!byId.isEmpty()) {
+                    String id = attrValue(attrs, "id");
+                    if (id != null) {
+                        found = test(found, byId.get(id), parent, ancestors, depth, name, lower, attrs);
+                    }
+                }
+                if (!byClass.isEmpty()) {
+                    String className = attrValue(attrs, "class");
+                    if (className != null) {
+                        int start = 0;
+                        for (int index = 0; index <= className.length(); index++) {
+                            if (index == className.length() || isSplitSpace(className.charAt(index))) {
+                                if (index > start) {
+                                    found = test(found, byClass.get(className.substring(start, index)),
+                                            parent, ancestors, depth, name, lower, attrs);
+                                }
+                                start = index + 1;
+                            }
+                        }
+                    }
+                }
+                if (!byAttr.isEmpty() && attrs != null) {
+                    for (Attribute attr : attrs) {
+                        HashMap<String, Candidates> values = byAttr.get(attr.name.toLowerCase());
+                        if (values != null && findAttr(attrs, attr.name) == attr) {//同名属性只取第一个
+                            found = test(found, values.get(attr.getValue()), parent, ancestors, depth, name, lower, attrs);
+                        }
+                    }
+                }
+                return found == null ? EMPTY : found.toStates();
+            }
+
+            /**
+             * 判断索引到的状态，满足的加入结果；祖先状态较少时只查找以祖先状态为前一状态的候选状态
+             *
+             * @return 满足的状态，没有时为null
+             */
+            private Found test(Found found, Candidates candidates, int[] parent, int[] ancestors, int depth,
+                    String name, String lower, ArrayList<Attribute> attrs) {
+                if (candidates == null) {
+                    return found;
+                }
+                if (ancestors.length >= candidates.all.length - candidates.roots.length) {
+                    return test(found, candidates.all, parent, ancestors, depth, name, lower, attrs);
+                }
+                found = test(found, candidates.roots, parent, ancestors, depth, name, lower, attrs);
+                for (int state : ancestors) {
+                    int[] group = candidates.byPrefix.get(state);
+                    if (group != null) {
+                        found = test(found, group, parent, ancestors, depth, name, lower, attrs);
+                    }
+                }
+                return found;
+            }
+
+            /**
+             * 判断候选状态，满足的加入结果
+             *
+             * @return 满足的状态，没有时为null
+             */
+            private Found test(Found found, int[] candidates, int[] parent, int[] ancestors, int depth,
+                    String name, String lower, ArrayList<Attribute> attrs) {
+                for (int i : candidates) {
+                    int prefix = prefixes[i];
+                    boolean ready;
+                    if (prefix < 0) {
+                        ready = compounds[i].test.oper1 != '>' || depth == 0;
+                    } else if (compounds[i].test.oper1 == '>') {
+                        ready = has(parent, prefix);
+                    } else {
+                        ready = has(ancestors, prefix);
+                    }
+                    if (ready && compounds[i].matchTag(name, lower, attrs)) {
+                        if (found == null) {
+                            found = new Found();
+                        }
+                        found.add(i);
+                    }
+                }
+                return found;
+            }
+
+            /**
+             * 合并祖先状态与父元素状态，作为子元素的祖先状态；父元素没有新状态时共用原数组
+             *
+             * @param ancestors 父元素的祖先状态
+             * @param parent 父元素的状态
+             * @return 子元素的祖先状态
+             */
+            static int[] union(int[] ancestors, int[] parent) {
+                if (parent.length == 0) {
+                    return ancestors;
+                }
+                if (ancestors.length == 0) {
+                    return parent;
+                }
+                int[] result = new int[ancestors.length + parent.length];
+                int count = 0;
+                int i = 0;
+                int j = 0;
+                while (i < ancestors.length || j < parent.length) {
+                    if (j == parent.length || (i < ancestors.length && ancestors[i] < parent[j])) {
+                        result[count++] = ancestors[i++];
+                    } else if (i == ancestors.length || parent[j] < ancestors[i]) {
+                        result[count++] = parent[j++];
+                    } else {
+                        result[count++] = ancestors[i++];
+                        j++;
+                    }
+                }
+                return count == ancestors.length ? ancestors : Arrays.copyOf(result, count);
+            }
+
+            /**
+             * 状态是否满足某个完整的选择器
+             *
+             * @param states 状态
+             * @return 是否满足
+             */
+            boolean matched(int[] states) {
+                for (int state : states) {
+                    if (targets[state] != null) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            /**
+             * 记录状态满足的选择器序号
+             *
+             * @param states 状态
+             * @param hit 各选择器是否已满足
+             * @param order 按首次满足顺序排列的选择器序号
+             */
+            void collect(int[] states, boolean[] hit, ArrayList<Integer> order) {
+                for (int state : states) {
+                    if (targets[state] != null) {
+                        for (int target : targets[state]) {
+                            if (!hit[target]) {
+                                hit[target] = true;
+                                order.add(target);
+                            }
+                        }
+                    }
+                }
+            }
+
+            static boolean has(int[] states, int i) {
+                return Arrays.binarySearch(states, i) >= 0;
+            }
+        }
+
+        private Selector(String text, Step[] steps) {
+            this.text = text;
+            this.steps = steps;
+            this.compounds = steps == null ? null : compounds(steps);
+            this.group = null;
+        }
+
+        private Selector(String text, Selector[] group) {
+            this.text = text;
+            this.steps = new Step[0];
+            this.compounds = null;
+            this.group = group;
+        }
+
+        /**
+         * 将查找步骤组合为复合选择器组，用于从右向左匹配
+         *
+         * @param steps 查找步骤
+         * @return 复合选择器组，含有无效步骤、:root、起始过滤步骤或起始兄弟关系时返回null
+         */
+        private static Compound[] compounds(Step[] steps) {
+            if (steps.length == 0 || steps[0].oper1 == '[' || steps[0].oper1 == ':'
+                    || steps[0].oper1 == '+' || steps[0].oper1 == '~') {
+                return null;
+            }
+            ArrayList<Compound> compounds = new ArrayList<Compound>();
+            int index = 0;
+            while (index < steps.length) {
+                Step test = steps[index];
+                if (test == Step.NONE) {
+                    return null;
+                }
+                int end = index + 1;
+                while (end < steps.length && (steps[end].oper1 == '[' || steps[end].oper1 == ':')) {
+                    if (steps[end].oper1 == ':' && "root".equals(steps[end].str1)) {
+                        return null;
+                    }
+                    end++;
+                }
+                Step[] filters = new Step[end - index - 1];
+                System.arraycopy(steps, index + 1, filters, 0, filters.length);
+                compounds.add(new Compound(test, filters));
+                index = end;
+            }
+            return compounds.toArray(new Compound[compounds.size()]);
+        }
+
+        /**
+         * 编译CSS选择器
+         *
+         * @param cssSelector css选择器
+         * @return 预编译的选择器
+         */
+        public static Selector compile(String cssSelector) {
+            if (cssSelector == null || cssSelector.isEmpty()) {
+                return new Selector(cssSelector, (Step[]) null);
+            }
+            ArrayList<String> parts = cssSelector.indexOf(',') >= 0 ? splitGroup(cssSelector) : null;
+            if (parts != null && (parts.size() != 1 || parts.get(0).length() != cssSelector.trim().length())) {
+                Selector[] group = new Selector[parts.size()];
+                for (int i = 0; i < group.length; i++) {
+                    group[i] = compile(parts.get(i));
+                }
+                return new Selector(cssSelector, group);
+            }
+            ArrayList<String> words = Node.getSelectorWordList(cssSelector);
+            ArrayList<Step> steps = new ArrayList<Step>();
+            int index = 0;
+            while (index < words.size()) {
+                String word = words.get(index);
+                if ("#".equals(word) || ".".equals(word) || ">".equals(word)
+                        || "+".equals(word) || "~".equals(word)) {
+                    if (index + 1 < words.size()) {
+                        steps.add(new Step(word.charAt(0), words.get(index + 1), ' ', null));
+                        index++;
+                    } else {
+                        steps.add(Step.NONE);
+                    }
+                } else if (":".equals(word)) {
+                    if (index + 1 < words.size()) {
+                        steps.add(Step.pseudo(words.get(index + 1)));
+                        index++;
+                    } else {
+                        steps.add(Step.NONE);
+                    }
+                } else if ("[".equals(word)) {
+                    int endIndex = index + 1;
+                    while (endIndex < words.size()) {
+                        if ("]".equals(words.get(endIndex))) {
+                            break;
+                        }
+                        endIndex++;
+                    }
+                    if (endIndex < words.size()) {
+                        int size = endIndex - index;
+                        switch (size) {
+                            case 2://[NAME]
+                                steps.add(new Step('[', words.get(index + 1), ' ', null));
+                                break;
+                            case 4://[NAME=VALUE]
+                                steps.add(new Step('[', words.get(index + 1), ' ', words.get(index + 3)));
+                                break;
+                            case 5://[NAME?=VALUE]
+                                steps.add(new Step('[', words.get(index + 1),
+                                        words.get(index + 2).charAt(0), words.get(index + 4)));
+                                break;
+                            default:
+                                steps.add(Step.NONE);
+                                break;
+                        }
+                        index = endIndex + 1;
+                    } else {
+                        steps.add(Step.NONE);
+                    }
+                } else {
+                    steps.add(new Step(' ', word, ' ', null));
+                }
+                index++;
+            }
+            return new Selector(cssSelector, steps.toArray(new Step[steps.size()]));
+        }
+
+        /**
+         * 以从根元素开始的标签名路径创建选择器，各级均为子元素关系，标签名不经过选择器分词
+         *
+         * @param path 以/分隔的标签名路径，*匹配任意标签
+         * @return 选择器
+         */
+        static Selector path(String path) {
+            String trimmed = path.trim();
+            if (trimmed.startsWith("/")) {
+                trimmed = trimmed.substring(1);
+            }
+            String[] names = trimmed.split("/", -1);
+            Step[] steps = new Step[names.length];
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i].trim();
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("empty name in path: " + path);
+                }
+                steps[i] = new Step('>', name, ' ', null);
+            }
+            return new Selector(path, steps);
+        }
+
+        /**
+         * 以引号和括号之外的逗号拆分选择器组，忽略空白的部分
+         *
+         * @param cssSelector css选择器
+         * @return 各选择器字符串
+         */
+        private static ArrayList<String> splitGroup(String cssSelector) {
+            ArrayList<String> parts = new ArrayList<String>();
+            char quote = 0;
+            int depth = 0;
+            int start = 0;
+            for (int index = 0; index <= cssSelector.length(); index++) {
+                char ch = index < cssSelector.length() ? cssSelector.charAt(index) : ',';
+                if (quote != 0) {
+                    if (ch == quote) {
+                        quote = 0;
+                    }
+                } else if (ch == '"' || ch == '\'') {
+                    quote = ch;
+                } else if (ch == '(') {
+                    depth++;
+                } else if (ch == ')') {
+                    depth--;
+                } else if (ch == ',' && depth <= 0) {
+                    String part = cssSelector.substring(start, index).trim();
+                    if (!part.isEmpty()) {
+                        parts.add(part);
+                    }
+                    start = index + 1;
+                }
+            }
+            if (quote != 0 && start < cssSelector.length()) {//引号未闭合时保留剩余部分
+                String part = cssSelector.substring(start).trim();
+                if (!part.isEmpty()) {
+                    parts.add(part);
+                }
+            }
+            return parts;
+        }
+
+        /**
+         * 以节点为上下文查找满足选择器的元素
+         *
+         * @param context 上下文节点
+         * @return 找到的节点列表
+         */
+        public ArrayList<NodeElement> search(Node context) {
+            if (steps == null) {
+                return new ArrayList<NodeElement>();
+            }
+            if (group != null) {
+                return searchGroup(context);
+            }
+            if (compounds != null && compounds.length > 1) {
+                return searchRightToLeft(context);
+            }
+            ArrayList<Node> nodes = new ArrayList<Node>();
+            ArrayList<NodeElement> result = null;
+            nodes.add(context);
+            int index = 0;
+            while (index < steps.length) {
+                Step step = steps[index];
+                if (step == Step.NONE) {
+                    result = null;
+                } else {
+                    ArrayList<NodeElement> indexed = null;
+                    if (step.oper1 == ' ' && index + 1 < steps.length) {//标签名后紧跟属性选择器时尝试使用属性值索引
+                        Step next = steps[index + 1];
+                        if (next.oper1 == '[' && next.str2 != null) {
+                            indexed = Node.searchIndexedAttr(nodes, step.str1, next.str1, next.oper2, next.str2);
+                            if (indexed != null) {
+                                index++;
+                            }
+                        }
+                    }
+                    result = indexed != null ? indexed : step.apply(nodes);
+                }
+                if (result != null) {
+                    nodes = new ArrayList<Node>(result);
+                }
+                index++;
+            }
+            return result;
+        }
+
+        /**
+         * 以节点为上下文按文档顺序逐个查找满足选择器的元素，结果与search相同<br/>
+         * 选择器（或选择器组的每个部分）都可从右向左匹配时，在先序遍历中逐个判断元素，只遍历到下一个结果为止；
+         * 否则在首次调用时完整查找<br/>
+         * 迭代期间不能修改文档结构
+         *
+         * @param context 上下文节点
+         * @return 元素迭代器
+         */
+        public Iterator<NodeElement> iterate(final Node context) {
+            if (steps == null) {
+                return new ArrayList<NodeElement>().iterator();
+            }
+            Selector[] parts = group != null ? group : new Selector[]{this};
+            final ArrayList<Matcher> matchers = new ArrayList<Matcher>(parts.length);
+            for (Selector part : parts) {
+                if (part.compounds != null) {
+                    matchers.add(part.new Matcher(context));
+                } else if (part.steps != null) {
+                    return new Iterator<NodeElement>() {
+
+                        private Iterator<NodeElement> result;
+
+                        private Iterator<NodeElement> result() {
+                            if (result == null) {
+                                ArrayList<NodeElement> found = search(context);
+                                result = (found == null ? new ArrayList<NodeElement>() : found).iterator();
+                            }
+                            return result;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return result().hasNext();
+                        }
+
+                        @Override
+                        public NodeElement next() {
+                            return result().next();
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            }
+            return new Node.ElementIterator(context, new Node.FilterElement() {
+
+                @Override
+                public boolean match(NodeElement element) {
+                    for (Matcher matcher : matchers) {
+                        if (matcher.matchRight(element)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            });
+        }
+
+        /**
+         * 从右向左匹配：只查找一次最右侧复合选择器的候选元素，再向上判断每个候选元素的祖先和兄弟，不构造中间结果
+         *
+         * @param context 上下文节点
+         * @return 按文档顺序排列的结果
+         */
+        private ArrayList<NodeElement> searchRightToLeft(Node context) {
+            ArrayList<NodeElement> result = new ArrayList<NodeElement>();
+            ArrayList<NodeElement> candidates = compounds[compounds.length - 1].candidates(context);
+            if (candidates.isEmpty()) {
+                return result;
+            }
+            Matcher matcher = new Matcher(context);
+            for (NodeElement element : candidates) {
+                if (matcher.matchRight(element)) {
+                    result.add(element);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 查找选择器组：可从右向左匹配的选择器在一次遍历中同时判断，其余选择器单独查找后合并
+         *
+         * @param context 上下文节点
+         * @return 按文档顺序排列且不重复的结果
+         */
+        private ArrayList<NodeElement> searchGroup(Node context) {
+            Query query = new Query(context, this, null);
+            ArrayList<Query> queries = new ArrayList<Query>(1);
+            queries.add(query);
+            walk(context, queries);
+            return query.finish(context);
+        }
+
+        /**
+         * 一次遍历中同时判断的查询，为选择器或元素过滤器
+         */
+        private static final class Query {
+
+            /**
+             * 选择器中可从右向左匹配的部分
+             */
+            final ArrayList<Matcher> matchers = new ArrayList<Matcher>();
+            /**
+             * 选择器中需单独查找的部分
+             */
+            final ArrayList<Selector> others = new ArrayList<Selector>();
+            /**
+             * 元素过滤器
+             */
+            final Node.FilterElement filter;
+            /**
+             * 遍历中找到的元素
+             */
+            ArrayList<NodeElement> result = new ArrayList<NodeElement>();
+
+            /**
+             * @param context 上下文节点
+             * @param selector 选择器，为null时使用元素过滤器
+             * @param filter 元素过滤器
+             */
+            Query(Node context, Selector selector, Node.FilterElement filter) {
+                this.filter = filter;
+                if (selector != null) {
+                    Selector[] parts = selector.group != null ? selector.group : new Selector[]{selector};
+                    for (Selector part : parts) {
+                        if (part.compounds != null) {
+                            matchers.add(part.new Matcher(context));
+                        } else if (part.steps != null) {
+                            others.add(part);
+                        }
+                    }
+                }
+            }
+
+            /**
+             * 合并单独查找的部分，得到最终结果
+             *
+             * @param context 上下文节点
+             * @return 按文档顺序排列且不重复的结果
+             */
+            ArrayList<NodeElement> finish(Node context) {
+                if (!others.isEmpty()) {
+                    for (Selector selector : others) {
+                        ArrayList<NodeElement> found = selector.search(context);
+                        if (found != null) {
+                            result.addAll(found);
+                        }
+                    }
+                    result = Node.documentOrder(Node.distinct(result));
+                }
+                return result;
+            }
+        }
+
+        /**
+         * 查询中的一个匹配器及其所属查询
+         */
+        private static final class Probe {
+
+            final Query query;
+            /**
+             * 匹配器，为null时使用查询的元素过滤器
+             */
+            final Matcher matcher;
+
+            Probe(Query query, Matcher matcher) {
+                this.query = query;
+                this.matcher = matcher;
+            }
+
+            /**
+             * 以元素判断，满足时加入查询结果，同一查询的多个匹配器只加入一次
+             *
+             * @param element 上下文节点下的元素
+             */
+            void test(NodeElement element) {
+                ArrayList<NodeElement> result = query.result;
+                if (!result.isEmpty() && result.get(result.size() - 1) == element) {
+                    return;
+                }
+                if (matcher == null ? query.filter.match(element) : matcher.matchRight(element)) {
+                    result.add(element);
+                }
+            }
+        }
+
+        /**
+         * 将匹配器按最右侧复合选择器的名称条件加入分组
+         *
+         * @param map 分组
+         * @param key 名称
+         * @param probe 匹配器
+         */
+        private static void addProbe(HashMap<String, ArrayList<Probe>> map, String key, Probe probe) {
+            ArrayList<Probe> probes = map.get(key);
+            if (probes == null) {
+                probes = new ArrayList<Probe>(1);
+                map.put(key, probes);
+            }
+            probes.add(probe);
+        }
+
+        /**
+         * 以分组中的匹配器判断元素
+         *
+         * @param map 分组
+         * @param key 元素的名称
+         * @param element 元素
+         */
+        private static void testProbes(HashMap<String, ArrayList<Probe>> map, String key, NodeElement element) {
+            ArrayList<Probe> probes = map.get(key);
+            if (probes != null) {
+                for (Probe probe : probes) {
+                    probe.test(element);
+                }
+            }
+        }
+
+        /**
+         * 先序遍历上下文节点的子孙元素，每个元素只访问一次并以所有查询判断<br/>
+         * 匹配器按最右侧复合选择器的标签名、ID或类名分组，每个元素只以名称可能满足的匹配器判断
+         *
+         * @param context 上下文节点
+         * @param queries 查询组
+         */
+        private static void walk(Node context, ArrayList<Query> queries) {
+            ArrayList<Probe> generic = new ArrayList<Probe>();
+            HashMap<String, ArrayList<Probe>> byLower = new HashMap<String, ArrayList<Probe>>();
+            HashMap<String, ArrayList<Probe>> byName = new HashMap<String, ArrayList<Probe>>();
+            HashMap<String, ArrayList<Probe>> byId = new HashMap<String, ArrayList<Probe>>();
+            HashMap<String, ArrayList<Probe>> byClass = new HashMap<String, ArrayList<Probe>>();
+            for (Query query : queries) {
+                if (query.filter != null) {
+                    generic.add(new Probe(query, null));
+                    continue;
+                }
+                for (Matcher matcher : query.matchers) {
+                    Probe probe = new Probe(query, matcher);
+                    Compound last = matcher.last();
+                    if (last.test.oper1 == '#') {
+                        addProbe(byId, last.test.str1, probe);
+                    } else if (last.test.oper1 == '.') {
+                        addProbe(byClass, last.test.str1, probe);
+                    } else if ("*".equals(last.test.str1)) {
+                        generic.add(probe);
+                    } else if (last.test.oper1 == ' ') {
+                        addProbe(byLower, last.lowerName, probe);
+                    } else {
+                        addProbe(byName, last.test.str1, probe);
+                    }
+                }
+            }
+            if (generic.isEmpty() && byLower.isEmpty() && byName.isEmpty() && byId.isEmpty() && byClass.isEmpty()) {
+                return;
+            }
+            ArrayList<Node> stack = new ArrayList<Node>();
+            stack.add(context);
+            while (!stack.isEmpty()) {
+                Node node = stack.remove(stack.size() - 1);
+                if (node != context && node instanceof NodeElement) {
+                    NodeElement element = (NodeElement) node;
+                    for (Probe probe : generic) {
+                        probe.test(element);
+                    }
+                    if (!byLower.isEmpty()) {
+                        testProbes(byLower, element.getLowerName(), element);
+                    }
+                    if (!byName.isEmpty()) {
+                        testProbes(byName, element.name, element);
+                    }
+                    if (!byId.isEmpty()) {
+                        String id = element.getAttrValue("id");
+                        if (id != null) {
+                            testProbes(byId, id, element);
+                        }
+                    }
+                    if (!byClass.isEmpty()) {
+                        String classes = element.getAttrValue("class");
+                        int index = 0;
+                        int length = classes == null ? 0 : classes.length();
+                        while (index < length) {
+                            while (index < length && isSplitSpace(classes.charAt(index))) {
+                                index++;
+                            }
+                            int tokenStart = index;
+                            while (index < length && !isSplitSpace(classes.charAt(index))) {
+                                index++;
+                            }
+                            if (index > tokenStart) {
+                                testProbes(byClass, classes.substring(tokenStart, index), element);
+                            }
+                        }
+                    }
+                }
+                ArrayList<Node> children = node.getChildren();
+                if (children != null) {
+                    for (int i = children.size() - 1; i >= 0; i--) {
+                        stack.add(children.get(i));
+                    }
+                }
+            }
+        }
+
+        /**
+         * 在一次遍历中执行多个命名查询
+         *
+         * @param context 上下文节点
+         * @param queries 按名称的查询，值为选择器字符串、{@link Selector}或{@link Node.FilterElement}
+         * @return 按名称的结果，与查询的迭代顺序相同
+         */
+        static LinkedHashMap<String, ArrayList<NodeElement>> searchAll(Node context, Map<String, ?> queries) {
+            LinkedHashMap<String, Query> compiled = new LinkedHashMap<String, Query>();
+            LinkedHashMap<String, ArrayList<NodeElement>> results = new LinkedHashMap<String, ArrayList<NodeElement>>();
+            for (Map.Entry<String, ?> entry : queries.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Node.FilterElement) {
+                    compiled.put(entry.getKey(), new Query(context, null, (Node.FilterElement) value));
+                    continue;
+                }
+                Selector selector;
+                if (value instanceof Selector) {
+                    selector = (Selector) value;
+                } else if (value instanceof String) {
+                    selector = CACHE.get((String) value);
+                } else {
+                    throw new IllegalArgumentException("query '" + entry.getKey() + "' is neither a selector nor a filter");
+                }
+                if (selector.group != null || (selector.compounds != null
+                        && (selector.compounds.length > 1 || context.getRootIndex() == null))) {
+                    compiled.put(entry.getKey(), new Query(context, selector, null));
+                } else {//有文档索引的单个复合选择器或只能从左向右查找时直接查找
+                    results.put(entry.getKey(), selector.search(context));
+                }
+            }
+            walk(context, new ArrayList<Query>(compiled.values()));
+            LinkedHashMap<String, ArrayList<NodeElement>> ordered = new LinkedHashMap<String, ArrayList<NodeElement>>();
+            for (String name : queries.keySet()) {
+                Query query = compiled.get(name);
+                ordered.put(name, query != null ? query.finish(context) : results.get(name));
+            }
+            return ordered;
+        }
+
+        /**
+         * 获取选择器字符串
+         *
+         * @return 选择器字符串
+         */
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * 解析事件处理器，以事件方式接收解析结果，不构造节点树<br/>
+     * 开始标签依次回调startTag、attribute（每个属性一次）、startTagEnd；
+     * 特殊标签（script/style）的内容以text回调，随后回调endTag
+     */
+    public static interface Handler {
+
+        /**
+         * 开始标签
+         *
+         * @param name 标签名称
+         */
+        public void startTag(String name);
+
+        /**
+         * 开始标签的属性
+         *
+         * @param name 属性名称
+         * @param value 属性值，无属性值则为null
+         * @param quote 引用字符，无引用字符或无属性值则为0
+         */
+        public void attribute(String name, String value, char quote);
+
+        /**
+         * 开始标签结束
+         *
+         * @param name 标签名称
+         * @param closed 是否为闭合标签（无内容）
+         */
+        public void startTagEnd(String name, boolean closed);
+
+        /**
+         * 结束标签
+         *
+         * @param name 标签名称
+         */
+        public void endTag(String name);
+
+        /**
+         * 文本<br/>
+         * 推送式解析时，超出缓冲区的长文本分为多次连续回调，分段不会拆分代理对
+         *
+         * @param text 文本或长文本的一段
+         */
+        public void text(String text);
+
+        /**
+         * 注释，!--标记的声明内容
+         *
+         * @param comment 注释
+         */
+        public void comment(String comment);
+
+        /**
+         * CDATA部件，![CDATA[标记的声明内容
+         *
+         * @param content CDATA部件内容
+         */
+        public void cdata(String content);
+
+        /**
+         * 声明，?标记的声明内容
+         *
+         * @param name 声明名称
+         * @param content 声明内容
+         */
+        public void declaration(String name, String content);
+
+        /**
+         * 文档类型定义，!标记的DTD内容
+         *
+         * @param name 元素名称
+         * @param content 元素内容
+         */
+        public void definition(String name, String content);
+    }
+
+    /**
+     * 解析事件处理器的空实现，按需覆盖所关心的事件
+     */
+    public static class HandlerAdapter implements Handler {
+
+        @Override
+        public void startTag(String name) {
+        }
+
+        @Override
+        public void attribute(String name, String value, char quote) {
+        }
+
+        @Override
+        public void startTagEnd(String name, boolean closed) {
+        }
+
+        @Override
+        public void endTag(String name) {
+        }
+
+        @Override
+        public void text(String text) {
+        }
+
+        @Override
+        public void comment(String comment) {
+        }
+
+        @Override
+        public void cdata(String content) {
+        }
+
+        @Override
+        public void declaration(String name, String content) {
+        }
+
+        @Override
+        public void definition(String name, String content) {
+        }
+    }
+
+    /**
+     * 拉取式解析游标，通过滑动缓冲区从读取器中逐个读取解析事件，不构造节点树<br/>
+     * 缓冲区大小固定，只有单个标签、注释等超出缓冲区时才会扩容，过长的文本分段返回；
+     * 名称、文本和属性只在获取时创建，并且只在调用下一次next前有效<br/>
+     * 单个词法单元，即标签、注释、CDATA部件、声明以及script/style等特殊标签的完整内容，
+     * 不能超过词法单元长度上限，超出时next抛出IOException，缓冲区不会超过该上限；文本不受限制
+     */
+    public static class Cursor implements Closeable {
+
+        /**
+         * 文档结束
+         */
+        public static final int END_DOCUMENT = 0;
+        /**
+         * 开始标签
+         */
+        public static final int START_TAG = 1;
+        /**
+         * 结束标签
+         */
+        public static final int END_TAG = 2;
+        /**
+         * 文本
+         */
+        public static final int TEXT = 3;
+        /**
+         * 注释
+         */
+        public static final int COMMENT = 4;
+        /**
+         * CDATA部件
+         */
+        public static final int CDATA = 5;
+        /**
+         * 声明，?标记的声明内容
+         */
+        public static final int DECLARATION = 6;
+        /**
+         * 文档类型定义，!标记的DTD内容
+         */
+        public static final int DEFINITION = 7;
+        /**
+         * 默认缓冲区大小
+         */
+        public static final int DEFAULT_BUFFER_SIZE = 8192;
+        /**
+         * 默认词法单元长度上限（字符数）
+         */
+        public static final int DEFAULT_MAX_TOKEN_SIZE = 4 * 1024 * 1024;
+        /**
+         * 读取器
+         */
+        private final Reader reader;
+        /**
+         * 是否以XML解析
+         */
+        private final boolean xmlmode;
+        /**
+         * 内容源
+         */
+        private final Source source;
+        /**
+         * 滑动缓冲区，内容源已完整时为null
+         */
+        private final BufferSource window;
+        /**
+         * 词法单元长度上限
+         */
+        private final int maxTokenSize;
+        /**
+         * 当前词法单元
+         */
+        private final Token token = new Token();
+        /**
+         * 属性收集器
+         */
+        private final AttrCollector collector = new AttrCollector();
+        /**
+         * 名称符号表
+         */
+        private final SymbolTable symbols = new SymbolTable();
+        /**
+         * 打开的元素名称栈
+         */
+        private final ArrayList<String> stack = new ArrayList<String>();
+        /**
+         * 下一个词法单元在缓冲区中的起始索引
+         */
+        private int pos;
+        /**
+         * 读取器是否已读取到结束
+         */
+        private boolean eof;
+        /**
+         * 当前事件类型
+         */
+        private int eventType;
+        /**
+         * 特殊标签中待返回的事件，没有则为-1
+         */
+        private int pending;
+        /**
+         * 当前事件是否为特殊标签内容
+         */
+        private boolean inSpecial;
+        /**
+         * 当前文本事件是否为超出缓冲区分段返回的一段，同一文本可能在后续TEXT事件中继续
+         */
+        private boolean partial;
+        /**
+         * 当前事件名称
+         */
+        private String name;
+        /**
+         * 当前事件属性组
+         */
+        private ArrayList<Attribute> attrs;
+
+        /**
+         * 解析游标构造函数
+         *
+         * @param reader 读取器
+         * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+         * @param bufferSize 缓冲区大小
+         */
+        public Cursor(Reader reader, boolean xmlmode, int bufferSize) {
+            this(reader, xmlmode, bufferSize, DEFAULT_MAX_TOKEN_SIZE);
+        }
+
+        /**
+         * 解析游标构造函数
+         *
+         * @param reader 读取器
+         * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+         * @param bufferSize 缓冲区大小
+         * @param maxTokenSize 词法单元长度上限（字符数），不小于缓冲区大小
+         */
+        public Cursor(Reader reader, boolean xmlmode, int bufferSize, int maxTokenSize) {
+            this.reader = reader;
+            this.xmlmode = xmlmode;
+            this.window = new BufferSource(bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE);
+            this.maxTokenSize = Math.max(maxTokenSize, window.buff.length);
+            this.source = window;
+            this.pos = 0;
+            this.eof = false;
+            this.eventType = -1;
+            this.pending = -1;
+        }
+
+        /**
+         * 完整内容源的解析游标构造函数
+         *
+         * @param source 内容源
+         * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+         */
+        private Cursor(Source source, boolean xmlmode) {
+            this.reader = null;
+            this.xmlmode = xmlmode;
+            this.window = null;
+            this.maxTokenSize = Integer.MAX_VALUE;
+            this.source = source;
+            this.pos = 0;
+            this.eof = true;
+            this.eventType = -1;
+            this.pending = -1;
+        }
+
+        /**
+         * 读取下一个事件
+         *
+         * @return 事件类型
+         * @throws IOException 读取错误，或词法单元超出长度上限
+         */
+        public int next() throws IOException {
+            name = null;
+            attrs = null;
+            if (eventType == END_DOCUMENT) {
+                return eventType;
+            }
+            if (pending >= 0) {//特殊标签的内容及结束标签
+                eventType = pending;
+                inSpecial = pending == TEXT;
+                pending = inSpecial ? END_TAG : -1;
+                if (eventType == END_TAG) {
+                    stack.remove(stack.size() - 1);
+                }
+                return eventType;
+            }
+            inSpecial = false;
+            partial = false;
+            while (true) {
+                int length = source.length();
+                int next = pos < length ? scanToken(source, pos, length, xmlmode, eof, token) : -1;
+                if (next >= 0) {
+                    pos = next;
+                    break;
+                }
+                if (eof) {
+                    eventType = END_DOCUMENT;
+                    return eventType;
+                }
+                if (pos < length && window.buff[pos] != '<' && length - pos == window.buff.length) {
+                    int end = length;//文本超出缓冲区，分段返回，不拆分代理对
+                    if (end - pos > 1 && Character.isHighSurrogate(window.buff[end - 1])) {
+                        end--;
+                    }
+                    token.text(pos, end);
+                    pos = end;
+                    partial = true;
+                    break;
+                }
+                window.compact(pos);
+                pos = 0;
+                if (window.fill(reader, maxTokenSize) < 0) {
+                    eof = true;
+                }
+            }
+            switch (token.type) {
+                case Token.START:
+                    eventType = START_TAG;
+                    if (!token.closed) {
+                        stack.add(getName());
+                        if (token.special) {
+                            pending = token.specialEnd > token.specialStart ? TEXT : END_TAG;
+                        }
+                    }
+                    break;
+                case Token.END:
+                    eventType = END_TAG;
+                    int size = stack.size();
+                    if (size > 0 && strEqual(getName(), stack.get(size - 1), !xmlmode)) {
+                        stack.remove(size - 1);
+                    }
+                    break;
+                case Token.COMMENT:
+                    eventType = COMMENT;
+                    break;
+                case Token.CDATA:
+                    eventType = CDATA;
+                    break;
+                case Token.DEC:
+                    eventType = DECLARATION;
+                    break;
+                case Token.DEF:
+                    eventType = DEFINITION;
+                    break;
+                default:
+                    eventType = TEXT;
+                    break;
+            }
+            return eventType;
+        }
+
+        /**
+         * 跳过当前开始标签的全部内容，直到与其匹配的结束标签
+         *
+         * @return 跳过后的事件类型
+         */
+        public int skip() throws IOException {
+            if (eventType == START_TAG && !token.closed) {
+                int depth = stack.size() - 1;
+                while (stack.size() > depth && next() != END_DOCUMENT) {
+                }
+            }
+            return eventType;
+        }
+
+        /**
+         * 获取当前事件类型
+         *
+         * @return 事件类型
+         */
+        public int getEventType() {
+            return eventType;
+        }
+
+        /**
+         * 当前文本事件是否为超出缓冲区分段返回的一段，为true时紧随其后的TEXT事件（如有）为同一文本的继续
+         *
+         * @return 是否为分段
+         */
+        public boolean isPartial() {
+            return partial;
+        }
+
+        /**
+         * 获取当前打开的元素层数
+         *
+         * @return 打开的元素层数
+         */
+        public int getDepth() {
+            return stack.size();
+        }
+
+        /**
+         * 获取标签、声明或文档类型定义的名称
+         *
+         * @return 名称，其他事件返回null
+         */
+        public String getName() {
+            if (name == null) {
+                if (eventType == START_TAG || eventType == END_TAG) {
+                    int slot = symbols.lookup(source, token.nameStart, token.nameEnd);
+                    name = slot >= 0 ? symbols.names[slot] : source.substring(token.nameStart, token.nameEnd);
+                } else if (eventType == DECLARATION || eventType == DEFINITION) {
+                    name = source.substring(token.nameStart, token.nameEnd);
+                }
+            }
+            return name;
+        }
+
+        /**
+         * 获取文本、注释、CDATA部件、声明或文档类型定义的内容<br/>
+         * 超出缓冲区的长文本分为多个连续的TEXT事件返回，分段不会拆分代理对
+         *
+         * @return 内容，其他事件返回null
+         */
+        public String getText() {
+            if (inSpecial) {
+                return source.substring(token.specialStart, token.specialEnd);
+            }
+            switch (eventType) {
+                case TEXT:
+                case COMMENT:
+                case CDATA:
+                case DECLARATION:
+                case DEFINITION:
+                    return source.substring(token.contentStart, token.contentEnd);
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * 当前开始标签是否为闭合标签（无内容）
+         *
+         * @return 是否为闭合标签
+         */
+        public boolean isClosed() {
+            return eventType == START_TAG && token.closed;
+        }
+
+        /**
+         * 获取当前开始标签的属性组
+         *
+         * @return 属性组，其他事件返回null
+         */
+        public ArrayList<Attribute> getAttrs() {
+            if (attrs == null && eventType == START_TAG) {
+                collector.attrs = new ArrayList<Attribute>();
+                collector.symbols = symbols;
+                scanAttrs(source, token.contentStart, token.contentEnd, collector);
+                attrs = collector.attrs;
+            }
+            return attrs;
+        }
+
+        /**
+         * 获取当前开始标签的属性
+         *
+         * @param name 属性名称
+         * @return 属性对象
+         */
+        public Attribute getAttr(String name) {
+            return findAttr(getAttrs(), name);
+        }
+
+        /**
+         * 获取当前开始标签的属性值
+         *
+         * @param name 属性名称
+         * @return 属性值
+         */
+        public String getAttrValue(String name) {
+            Attribute attr = getAttr(name);
+            return attr == null ? null : attr.getValue();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * 流式提取，以游标读取文档，按打开的元素栈匹配选择器，只构造匹配元素的子树，
+     * 匹配元素在其结束时依次返回（嵌套的匹配元素内层先返回），达到数量上限后不再读取
+     */
+    public static class Extraction implements Iterator<NodeElement>, Closeable {
+
+        /**
+         * 游标
+         */
+        private final Cursor cursor;
+        /**
+         * 选择器自动机
+         */
+        private final Selector.StreamMatcher matcher;
+        /**
+         * 数量上限，小于等于0时不限
+         */
+        private final int limit;
+        /**
+         * 打开的元素状态栈
+         */
+        private final ArrayList<int[]> states = new ArrayList<int[]>();
+        /**
+         * 打开的元素祖先状态栈
+         */
+        private final ArrayList<int[]> ancestors = new ArrayList<int[]>();
+        /**
+         * 打开的元素栈，不在匹配子树中的元素为null
+         */
+        private final ArrayList<NodeElement> elements = new ArrayList<NodeElement>();
+        /**
+         * 打开的元素是否匹配
+         */
+        private final ArrayList<Boolean> matches = new ArrayList<Boolean>();
+        /**
+         * 已结束待返回的匹配元素
+         */
+        private final ArrayList<NodeElement> ready = new ArrayList<NodeElement>();
+        /**
+         * 已返回的数量
+         */
+        private int count;
+        /**
+         * 是否已停止读取
+         */
+        private boolean done;
+        /**
+         * 分段返回的长文本中已读取的部分，没有时为null
+         */
+        private StringBuilder pendingText;
+
+        /**
+         * @param cursor 游标
+         * @param selector 选择器
+         * @param limit 数量上限，小于等于0时不限
+         */
+        Extraction(Cursor cursor, Selector selector, int limit) {
+            this.cursor = cursor;
+            this.matcher = new Selector.StreamMatcher(new Selector[]{selector});
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (ready.isEmpty() && !done) {
+                    read();
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            return !ready.isEmpty();
+        }
+
+        @Override
+        public NodeElement next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            NodeElement element = ready.remove(0);
+            count++;
+            if (limit > 0 && count >= limit) {//达到数量上限，不再读取
+                done = true;
+                ready.clear();
+            }
+            return element;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * 读取一个事件
+         */
+        private void read() throws IOException {
+            int size = elements.size();
+            Node current = size > 0 ? elements.get(size - 1) : null;
+            int event = cursor.next();
+            if (pendingText != null && (event != Cursor.TEXT || cursor.inSpecial)) {//分段文本已结束
+                current.append(new NodeText(pendingText.toString()));
+                pendingText = null;
+            }
+            switch (event) {
+                case Cursor.START_TAG:
+                    String name = cursor.getName();
+                    int[] parent = size > 0 ? states.get(size - 1) : Selector.StreamMatcher.EMPTY;
+                    int[] above = size > 0 ? ancestors.get(size - 1) : Selector.StreamMatcher.EMPTY;
+                    int[] union = Selector.StreamMatcher.union(above, parent);
+                    int[] state = matcher.open(parent, union, size, name, matcher.needsAttrs ? cursor.getAttrs() : null);
+                    boolean matched = matcher.matched(state);
+                    NodeElement element = null;
+                    if (current != null || matched) {
+                        ArrayList<Attribute> attrs = cursor.getAttrs();
+                        boolean closed = cursor.isClosed();
+                        if (cursor.token.special) {
+                            NodeSpecial speNode = new NodeSpecial(name, attrs, null);
+                            if (!closed) {
+                                speNode.closed = false;
+                                speNode.content = "";
+                            }
+                            element = speNode;
+                        } else {
+                            element = new NodeElement(name, attrs, closed);
+                        }
+                        if (current != null) {
+                            current.append(element);
+                        }
+                    }
+                    if (cursor.isClosed()) {
+                        if (matched) {
+                            ready.add(element);
+                        }
+                    } else {
+                        states.add(state);
+                        ancestors.add(union);
+                        elements.add(element);
+                        matches.add(matched);
+                    }
+                    break;
+                case Cursor.END_TAG:
+                    if (cursor.getDepth() < size) {
+                        pop();
+                    }
+                    break;
+                case Cursor.TEXT:
+                    if (current != null) {
+                        String text = cursor.getText();
+                        if (cursor.inSpecial && current instanceof NodeSpecial) {
+                            ((NodeSpecial) current).content = text;
+                        } else if (pendingText != null || cursor.isPartial()) {//超出缓冲区分段返回的文本，合并为一个节点
+                            if (pendingText == null) {
+                                pendingText = new StringBuilder(text);
+                            } else {
+                                pendingText.append(text);
+                            }
+                            if (!cursor.isPartial()) {
+                                current.append(new NodeText(pendingText.toString()));
+                                pendingText = null;
+                            }
+                        } else {
+                            current.append(new NodeText(text));
+                        }
+                    }
+                    break;
+                case Cursor.COMMENT:
+                    if (current != null) {
+                        current.append(new NodeComment(cursor.getText()));
+                    }
+                    break;
+                case Cursor.CDATA:
+                    if (current != null) {
+                        current.append(new NodeCDATA(cursor.getText()));
+                    }
+                    break;
+                case Cursor.DECLARATION:
+                    if (current != null) {
+                        current.append(new NodeDec(cursor.getName(), cursor.getText()));
+                    }
+                    break;
+                case Cursor.DEFINITION:
+                    if (current != null) {
+                        current.append(new NodeDef(cursor.getName(), cursor.getText()));
+                    }
+                    break;
+                default://文档结束，未结束的匹配元素依次返回
+                    while (!elements.isEmpty()) {
+                        pop();
+                    }
+                    done = true;
+                    break;
+            }
+        }
+
+        /**
+         * 结束栈顶元素
+         */
+        private void pop() {
+            int last = elements.size() - 1;
+            states.remove(last);
+            ancestors.remove(last);
+            NodeElement element = elements.remove(last);
+            if (matches.remove(last)) {
+                ready.add(element);
+            }
+        }
+
+        /**
+         * 关闭游标
+         */
+        @Override
+        public void close() throws IOException {
+            done = true;
+            cursor.close();
+        }
+    }
+
+    /**
+     * 订阅选择器组，所有选择器编译为一个共享自动机，由解析事件驱动，一次解析判断文档满足哪些订阅；
+     * 只支持子孙、子元素关系和属性选择器，添加和移除订阅后重新编译，匹配时线程安全
+     */
+    public static class Subscriptions {
+
+        /**
+         * 按名称的订阅选择器
+         */
+        private final LinkedHashMap<String, Selector> selectors = new LinkedHashMap<String, Selector>();
+        /**
+         * 订阅名称，与自动机中的选择器序号对应
+         */
+        private String[] names;
+        /**
+         * 编译的自动机，订阅变化后为null
+         */
+        private Selector.StreamMatcher matcher;
+
+        /**
+         * 添加订阅，同名订阅被替换
+         *
+         * @param name 订阅名称
+         * @param cssSelector css选择器
+         * @return 类本身
+         */
+        public Subscriptions add(String name, String cssSelector) {
+            return add(name, Selector.CACHE.get(cssSelector));
+        }
+
+        /**
+         * 添加订阅，同名订阅被替换
+         *
+         * @param name 订阅名称
+         * @param selector 预编译的选择器
+         * @return 类本身
+         */
+        public synchronized Subscriptions add(String name, Selector selector) {
+            new Selector.StreamMatcher(new Selector[]{selector});//检查是否支持
+            selectors.put(name, selector);
+            matcher = null;
+            return this;
+        }
+
+        /**
+         * 移除订阅
+         *
+         * @param name 订阅名称
+         * @return 是否存在该订阅
+         */
+        public synchronized boolean remove(String name) {
+            if (selectors.remove(name) != null) {
+                matcher = null;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 获取订阅数量
+         *
+         * @return 订阅数量
+         */
+        public synchronized int size() {
+            return selectors.size();
+        }
+
+        /**
+         * 创建一次匹配的事件处理器，可用于parse、parseMapped或push解析
+         *
+         * @param xmlmode 是否以XML解析，区分大小写
+         * @return 事件处理器
+         */
+        public synchronized Matching matching(boolean xmlmode) {
+            if (matcher == null) {
+                names = selectors.keySet().toArray(new String[selectors.size()]);
+                matcher = new Selector.StreamMatcher(selectors.values().toArray(new Selector[selectors.size()]));
+            }
+            return new Matching(matcher, names, xmlmode);
+        }
+
+        /**
+         * 解析文档并判断满足的订阅
+         *
+         * @param document 文档字符串
+         * @param xmlmode 是否以XML解析，区分大小写
+         * @return 按首次满足顺序排列的订阅名称
+         */
+        public LinkedHashSet<String> match(String document, boolean xmlmode) {
+            Matching matching = matching(xmlmode);
+            parse(document, xmlmode, matching);
+            return matching.getMatched();
+        }
+
+        /**
+         * 以内存映射方式解析UTF-8文件并判断满足的订阅
+         *
+         * @param file 文件
+         * @param xmlmode 是否以XML解析，区分大小写
+         * @return 按首次满足顺序排列的订阅名称
+         * @throws IOException 读取文件错误
+         */
+        public LinkedHashSet<String> match(File file, boolean xmlmode) throws IOException {
+            Matching matching = matching(xmlmode);
+            parseMapped(file, xmlmode, matching);
+            return matching.getMatched();
+        }
+    }
+
+    /**
+     * 一次订阅匹配的事件处理器，按打开的元素栈推进共享自动机
+     */
+    public static class Matching extends HandlerAdapter {
+
+        /**
+         * 共享自动机
+         */
+        private final Selector.StreamMatcher matcher;
+        /**
+         * 订阅名称
+         */
+        private final String[] names;
+        /**
+         * 是否以XML解析
+         */
+        private final boolean xmlmode;
+        /**
+         * 打开的元素名称栈
+         */
+        private final ArrayList<String> stack = new ArrayList<String>();
+        /**
+         * 打开的元素状态栈
+         */
+        private final ArrayList<int[]> states = new ArrayList<int[]>();
+        /**
+         * 打开的元素祖先状态栈
+         */
+        private final ArrayList<int[]> ancestors = new ArrayList<int[]>();
+        /**
+         * 当前开始标签的属性组，不需要属性时为null
+         */
+        private ArrayList<Attribute> attrs;
+        /**
+         * 各订阅是否已满足
+         */
+        private final boolean[] hit;
+        /**
+         * 按首次满足顺序排列的订阅序号
+         */
+        private final ArrayList<Integer> order = new ArrayList<Integer>();
+
+        Matching(Selector.StreamMatcher matcher, String[] names, boolean xmlmode) {
+            this.matcher = matcher;
+            this.names = names;
+            this.xmlmode = xmlmode;
+            this.hit = new boolean[names.length];
+        }
+
+        @Override
+        public void startTag(String name) {
+            attrs = matcher.needsAttrs ? new ArrayList<Attribute>() : null;
+        }
+
+        @Override
+        public void attribute(String name, String value, char quote) {
+            if (attrs != null) {
+                attrs.add(new Attribute(name, value, quote));
+            }
+        }
+
+        @Override
+        public void startTagEnd(String name, boolean closed) {
+            int size = stack.size();
+            int[] parent = size > 0 ? states.get(size - 1) : Selector.StreamMatcher.EMPTY;
+            int[] above = size > 0 ? ancestors.get(size - 1) : Selector.StreamMatcher.EMPTY;
+            int[] union = Selector.StreamMatcher.union(above, parent);
+            int[] state = matcher.open(parent, union, size, name, attrs);
+            matcher.collect(state, hit, order);
+            if (!closed) {
+                stack.add(name);
+                states.add(state);
+                ancestors.add(union);
+            }
+            attrs = null;
+        }
+
+        @Override
+        public void endTag(String name) {
+            int size = stack.size();
+            if (size > 0 && strEqual(name, stack.get(size - 1), !xmlmode)) {
+                stack.remove(size - 1);
+                states.remove(size - 1);
+                ancestors.remove(size - 1);
+            }
+        }
+
+        /**
+         * 是否满足订阅
+         *
+         * @param name 订阅名称
+         * @return 是否满足
+         */
+        public boolean isMatched(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return hit[i];
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 获取已满足的订阅
+         *
+         * @return 按首次满足顺序排列的订阅名称
+         */
+        public LinkedHashSet<String> getMatched() {
+            LinkedHashSet<String> result = new LinkedHashSet<String>();
+            for (int index : order) {
+                result.add(names[index]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 批量解析的单个结果
+     */
+    public static class BatchResult {
+
+        /**
+         * 文件
+         */
+        private final File file;
+        /**
+         * 解析得到的文档对象，失败时为null
+         */
+        private final DomParser parser;
+        /**
+         * 解析失败的异常，成功时为null
+         */
+        private final Throwable error;
+        /**
+         * 占用的在途字节数
+         */
+        private final long weight;
+
+        private BatchResult(File file, DomParser parser, Throwable error, long weight) {
+            this.file = file;
+            this.parser = parser;
+            this.error = error;
+            this.weight = weight;
+        }
+
+        /**
+         * 获取文件
+         *
+         * @return 文件
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * 获取解析得到的文档对象
+         *
+         * @return 文档对象，失败时为null
+         */
+        public DomParser getParser() {
+            return parser;
+        }
+
+        /**
+         * 获取解析失败的异常
+         *
+         * @return 异常，成功时为null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * 是否解析成功
+         *
+         * @return 是否成功
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * 批量解析，在线程池中解析文件，按完成顺序返回结果或失败<br/>
+     * 只在迭代时提交任务，在途文件的总字节数不超过上限（单个文件超出上限时单独解析），
+     * 消费结果的速度决定提交的速度
+     */
+    public static class Batch implements Iterator<BatchResult> {
+
+        /**
+         * 待解析的文件
+         */
+        private final Iterator<? extends File> files;
+        /**
+         * 文件编码，null为默认编码
+         */
+        private final String encode;
+        /**
+         * 解析选项
+         */
+        private final Options options;
+        /**
+         * 按完成顺序获取结果
+         */
+        private final CompletionService<BatchResult> completion;
+        /**
+         * 在途字节数上限
+         */
+        private final long maxBytes;
+        /**
+         * 在途字节数
+         */
+        private long bytes;
+        /**
+         * 在途文件数
+         */
+        private int count;
+        /**
+         * 因超出在途字节数上限而尚未提交的文件
+         */
+        private File waiting;
+
+        private Batch(Collection<? extends File> files, String encode, Options options, ExecutorService executor, long maxBytes) {
+            this.files = files.iterator();
+            this.encode = encode;
+            this.options = options == null ? new Options() : options;
+            this.completion = new ExecutorCompletionService<BatchResult>(executor);
+            this.maxBytes = Math.max(1, maxBytes);
+        }
+
+        /**
+         * 在不超过在途字节数上限时提交文件
+         */
+        private void submit() {
+            while (waiting != null || files.hasNext()) {
+                if (waiting == null) {
+                    waiting = files.next();
+                }
+                final File file = waiting;
+                final long weight = Math.min(Math.max(1, file.length()), maxBytes);
+                if (count > 0 && bytes + weight > maxBytes) {
+                    break;//等待在途文件完成
+                }
+                completion.submit(new Callable<BatchResult>() {
+
+                    @Override
+                    public BatchResult call() {
+                        try {
+                            return new BatchResult(file, create(read(file, encode), options), null, weight);
+                        } catch (Throwable ex) {
+                            return new BatchResult(file, null, ex, weight);
+                        }
+                    }
+                });
+                waiting = null;
+                bytes += weight;
+                count++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            submit();
+            return count > 0;
+        }
+
+        /**
+         * 等待并获取下一个完成的结果
+         *
+         * @return 解析结果
+         * @throws IllegalStateException 等待时被中断，线程保留中断状态
+         */
+        @Override
+        public BatchResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            BatchResult result;
+            try {
+                result = completion.take().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for batch result", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());//任务已捕获所有异常，不会发生
+            }
+            bytes -= result.weight;
+            count--;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * 记录处理器，在工作线程中处理一个记录
+     *
+     * @param <T> 处理结果类型
+     */
+    public interface RecordProcessor<T> {
+
+        /**
+         * 处理记录
+         *
+         * @param record 记录元素，处理期间只由当前线程访问
+         * @return 处理结果
+         * @throws Exception 处理失败
+         */
+        T process(NodeElement record) throws Exception;
+    }
+
+    /**
+     * 记录处理结果
+     *
+     * @param <T> 处理结果类型
+     */
+    public static class RecordResult<T> {
+
+        /**
+         * 记录序号，从0开始
+         */
+        private final long index;
+        /**
+         * 记录元素
+         */
+        private final NodeElement record;
+        /**
+         * 处理结果，失败时为null
+         */
+        private final T value;
+        /**
+         * 处理失败的异常，成功时为null
+         */
+        private final Throwable error;
+
+        private RecordResult(long index, NodeElement record, T value, Throwable error) {
+            this.index = index;
+            this.record = record;
+            this.value = value;
+            this.error = error;
+        }
+
+        /**
+         * 获取记录序号
+         *
+         * @return 记录在记录流中的序号，从0开始
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * 获取记录元素
+         *
+         * @return 记录元素
+         */
+        public NodeElement getRecord() {
+            return record;
+        }
+
+        /**
+         * 获取处理结果
+         *
+         * @return 处理结果，失败时为null
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * 获取处理失败的异常
+         *
+         * @return 异常，成功时为null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * 是否处理成功
+         *
+         * @return 是否成功
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * 记录处理流水线，在调用线程中读取记录并提交到线程池处理，返回处理结果<br/>
+     * 在途记录（已提交但结果尚未返回）的数量不超过上限，达到上限时暂停读取，
+     * 等待结果期间工作线程继续处理，读取与处理交替重叠；可按记录顺序或完成顺序返回结果
+     *
+     * @param <T> 处理结果类型
+     */
+    public static class Pipeline<T> implements Iterator<RecordResult<T>>, Closeable {
+
+        /**
+         * 记录流
+         */
+        private final Iterator<NodeElement> records;
+        /**
+         * 记录处理器
+         */
+        private final RecordProcessor<T> processor;
+        /**
+         * 按完成顺序获取结果
+         */
+        private final CompletionService<RecordResult<T>> completion;
+        /**
+         * 在途记录数上限
+         */
+        private final int maxInFlight;
+        /**
+         * 是否按记录顺序返回
+         */
+        private final boolean ordered;
+        /**
+         * 按记录顺序返回时，已完成但前面还有记录未完成的结果
+         */
+        private final HashMap<Long, RecordResult<T>> completed = new HashMap<Long, RecordResult<T>>();
+        /**
+         * 已提交的记录数
+         */
+        private long submitted;
+        /**
+         * 下一个返回的记录序号（按记录顺序返回时）
+         */
+        private long expected;
+        /**
+         * 在途记录数
+         */
+        private int count;
+        /**
+         * 是否已关闭
+         */
+        private boolean closed;
+
+        private Pipeline(Iterator<NodeElement> records, RecordProcessor<T> processor, ExecutorService executor,
+                int maxInFlight, boolean ordered) {
+            this.records = records;
+            this.processor = processor;
+            this.completion = new ExecutorCompletionService<RecordResult<T>>(executor);
+            this.maxInFlight = Math.max(1, maxInFlight);
+            this.ordered = ordered;
+        }
+
+        /**
+         * 在不超过在途记录数上限时读取并提交记录
+         */
+        private void submit() {
+            while (!closed && count < maxInFlight && records.hasNext()) {
+                final NodeElement record = records.next();
+                final long index = submitted++;
+                completion.submit(new Callable<RecordResult<T>>() {
+
+                    @Override
+                    public RecordResult<T> call() {
+                        try {
+                            return new RecordResult<T>(index, record, processor.process(record), null);
+                        } catch (Throwable ex) {
+                            return new RecordResult<T>(index, record, null, ex);
+                        }
+                    }
+                });
+                count++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            submit();
+            return count > 0;
+        }
+
+        /**
+         * 等待并获取下一个结果
+         *
+         * @return 处理结果
+         * @throws IllegalStateException 等待时被中断，线程保留中断状态
+         */
+        @Override
+        public RecordResult<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RecordResult<T> result = ordered ? completed.remove(expected) : null;
+            while (result == null) {
+                RecordResult<T> done;
+                try {
+                    done = completion.take().get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for record result", ex);
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException(ex.getCause());//任务已捕获所有异常，不会发生
+                }
+                if (!ordered || done.index == expected) {
+                    result = done;
+                } else {
+                    completed.put(done.index, done);
+                }
+            }
+            expected++;
+            count--;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * 停止读取记录并关闭记录流，已提交的记录仍可获取结果
+         *
+         * @throws IOException 关闭记录流错误
+         */
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (records instanceof Closeable) {
+                ((Closeable) records).close();
+            }
+        }
+    }
+
+    /**
+     * 推送式解析器，调用方分块送入内容，每个完整的词法单元立即转发给事件处理器<br/>
+     * 跨越分块边界的标签、注释等在后续内容送入后继续扫描，末尾的文本在下一个标签出现、结束或超过缓冲区大小时转发，
+     * 过长的文本分段转发<br/>
+     * 未完成的词法单元（标签、注释、CDATA部件及script/style等特殊标签的完整内容）
+     * 不能超过{@link Cursor#DEFAULT_MAX_TOKEN_SIZE}个字符，超出时送入内容抛出IllegalStateException
+     */
+    public static class PushParser {
+
+        /**
+         * 是否以XML解析
+         */
+        private final boolean xmlmode;
+        /**
+         * 字节解码器，只送入字符时为null
+         */
+        private final CharsetDecoder decoder;
+        /**
+         * 尚未解码的字节，如跨越分块边界的多字节字符
+         */
+        private ByteBuffer bytes;
+        /**
+         * 未扫描内容的缓冲区
+         */
+        private final BufferSource buffer = new BufferSource(Cursor.DEFAULT_BUFFER_SIZE);
+        /**
+         * 当前词法单元
+         */
+        private final Token token = new Token();
+        /**
+         * 转发给事件处理器的属性接收者
+         */
+        private final HandlerAttrSink sink;
+        /**
+         * 下一个词法单元在缓冲区中的起始索引
+         */
+        private int pos;
+        /**
+         * 是否已结束
+         */
+        private boolean ended;
+
+        private PushParser(Handler handler, String encode, boolean xmlmode) {
+            this.xmlmode = xmlmode;
+            this.sink = new HandlerAttrSink(handler);
+            if (encode == null) {
+                this.decoder = null;
+            } else {
+                this.decoder = Charset.forName(encode).newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                this.bytes = ByteBuffer.allocate(64);
+            }
+        }
+
+        /**
+         * 送入字符内容
+         *
+         * @param chs 字符数组
+         * @param off 起始位置
+         * @param len 字符数
+         * @return 类本身
+         */
+        public PushParser feed(char[] chs, int off, int len) {
+            checkOpen();
+            prepare(len);
+            System.arraycopy(chs, off, buffer.buff, buffer.length, len);
+            buffer.length += len;
+            scan(false);
+            return this;
+        }
+
+        /**
+         * 送入字符内容
+         *
+         * @param str 字符串
+         * @return 类本身
+         */
+        public PushParser feed(String str) {
+            checkOpen();
+            int len = str.length();
+            prepare(len);
+            str.getChars(0, len, buffer.buff, buffer.length);
+            buffer.length += len;
+            scan(false);
+            return this;
+        }
+
+        /**
+         * 送入字节内容，按创建时指定的编码解码，读取字节缓冲区中的全部剩余字节
+         *
+         * @param in 字节缓冲区
+         * @return 类本身
+         */
+        public PushParser feed(ByteBuffer in) {
+            checkOpen();
+            if (decoder == null) {
+                throw new IllegalStateException("no encoding specified for byte input");
+            }
+            if (bytes.remaining() < in.remaining()) {
+                ByteBuffer newBytes = ByteBuffer.allocate(bytes.position() + in.remaining());
+                bytes.flip();
+                newBytes.put(bytes);
+                bytes = newBytes;
+            }
+            bytes.put(in);
+            bytes.flip();
+            decode(false);
+            bytes.compact();
+            scan(false);
+            return this;
+        }
+
+        /**
+         * 结束送入，扫描剩余内容，末尾未完成的标签等被忽略
+         */
+        public void end() {
+            checkOpen();
+            if (decoder != null) {
+                bytes.flip();
+                decode(true);
+                bytes.clear();
+            }
+            scan(true);
+            ended = true;
+        }
+
+        private void checkOpen() {
+            if (ended) {
+                throw new IllegalStateException("parser already ended");
+            }
+        }
+
+        /**
+         * 丢弃已扫描的内容，并保证缓冲区有足够空间
+         *
+         * @param len 需要的空间
+         */
+        private void prepare(int len) {
+            buffer.compact(pos);
+            pos = 0;
+            if (buffer.buff.length - buffer.length < len) {
+                char[] newBuff = new char[Math.max(buffer.buff.length * 2, buffer.length + len)];
+                System.arraycopy(buffer.buff, 0, newBuff, 0, buffer.length);
+                buffer.buff = newBuff;
+            }
+        }
+
+        /**
+         * 解码字节到缓冲区，不完整的多字节字符保留到下次
+         *
+         * @param last 是否已无更多字节
+         */
+        private void decode(boolean last) {
+            prepare(bytes.remaining() + 1);
+            while (true) {
+                CharBuffer out = CharBuffer.wrap(buffer.buff, buffer.length, buffer.buff.length - buffer.length);
+                boolean overflow = decoder.decode(bytes, out, last).isOverflow();
+                if (!overflow && last) {
+                    overflow = decoder.flush(out).isOverflow();
+                }
+                buffer.length = out.position();
+                if (!overflow) {
+                    break;
+                }
+                prepare(buffer.buff.length);
+            }
+        }
+
+        /**
+         * 扫描并转发完整的词法单元
+         *
+         * @param last 是否已无更多内容
+         * @throws IllegalStateException 未完成的词法单元超出长度上限
+         */
+        private void scan(boolean last) {
+            int length = buffer.length;
+            while (pos < length) {
+                int next = scanToken(buffer, pos, length, xmlmode, last, token);
+                if (next < 0) {
+                    break;//等待更多内容
+                }
+                dispatch(buffer, token, sink);
+                pos = next;
+            }
+            if (!last && pos < length) {
+                if (buffer.buff[pos] != '<') {
+                    if (length - pos >= Cursor.DEFAULT_BUFFER_SIZE) {//文本超出缓冲区，分段转发，不拆分代理对
+                        int end = length;
+                        if (Character.isHighSurrogate(buffer.buff[end - 1])) {
+                            end--;
+                        }
+                        token.text(pos, end);
+                        dispatch(buffer, token, sink);
+                        pos = end;
+                    }
+                } else if (length - pos > Cursor.DEFAULT_MAX_TOKEN_SIZE) {
+                    ended = true;
+                    throw new IllegalStateException("token exceeds maximum size of "
+                            + Cursor.DEFAULT_MAX_TOKEN_SIZE + " characters");
+                }
+            }
+        }
+    }
+
+    /**
+     * 词法单元，扫描时重复使用，只记录内容源中的索引
+     */
+    private static final class Token {
+
+        static final int TEXT = 1;
+        static final int START = 2;
+        static final int END = 3;
+        static final int COMMENT = 4;
+        static final int CDATA = 5;
+        static final int DEC = 6;
+        static final int DEF = 7;
+        /**
+         * 词法单元类型
+         */
+        int type;
+        /**
+         * 名称起止索引
+         */
+        int nameStart, nameEnd;
+        /**
+         * 内容起止索引，开始标签为属性区间
+         */
+        int contentStart, contentEnd;
+        /**
+         * 特殊标签内容起止索引
+         */
+        int specialStart, specialEnd;
+        /**
+         * 开始标签是否闭合
+         */
+        boolean closed;
+        /**
+         * 是否为特殊标签
+         */
+        boolean special;
+        /**
+         * 跳过元素内容时使用的名称索引栈
+         */
+        int[] stack = new int[32];
+
+        void text(int start, int end) {
+            content(TEXT, start, end);
+        }
+
+        void content(int type, int start, int end) {
+            named(type, start, start, start, end);
+        }
+
+        void named(int type, int nameStart, int nameEnd, int contentStart, int contentEnd) {
+            this.type = type;
+            this.nameStart = nameStart;
+            this.nameEnd = nameEnd;
+            this.contentStart = contentStart;
+            this.contentEnd = contentEnd;
+            this.closed = false;
+            this.special = false;
+        }
+    }
+
+    /**
+     * 内容源，扫描器通过内容源读取字符
+     */
+    private static abstract class Source {
+
+        /**
+         * 获取内容长度
+         *
+         * @return 内容长度
+         */
+        abstract int length();
+
+        /**
+         * 获取指定索引的字符
+         *
+         * @param index 索引
+         * @return 字符
+         */
+        abstract char charAt(int index);
+
+        /**
+         * 截取字符串
+         *
+         * @param start 起始索引
+         * @param end 截止索引
+         * @return 截取的字符串
+         */
+        abstract String substring(int start, int end);
+
+        /**
+         * 截取内容，可共享内容源时返回视图
+         *
+         * @param start 起始索引
+         * @param end 截止索引
+         * @return 截取的内容
+         */
+        CharSequence slice(int start, int end) {
+            return substring(start, end);
+        }
+
+        /**
+         * 查找字符
+         *
+         * @param ch 字符
+         * @param start 起始索引
+         * @return 字符索引，没有找到返回-1
+         */
+        int indexOf(char ch, int start) {
+            int length = length();
+            for (int i = start; i < length; i++) {
+                if (charAt(i) == ch) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 查找字符串
+         *
+         * @param str 字符串
+         * @param start 起始索引
+         * @return 字符串索引，没有找到返回-1
+         */
+        int indexOf(String str, int start) {
+            int index = indexOf(str.charAt(0), start);
+            while (index >= 0) {
+                if (startsWith(str, index)) {
+                    return index;
+                }
+                index = indexOf(str.charAt(0), index + 1);
+            }
+            return -1;
+        }
+
+        /**
+         * 判断指定索引处是否以字符串开始
+         *
+         * @param prefix 字符串
+         * @param offset 索引
+         * @return 是否以字符串开始
+         */
+        boolean startsWith(String prefix, int offset) {
+            if (offset < 0 || offset + prefix.length() > length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (charAt(offset + i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 忽略大小写判断指定索引处是否以字符串开始
+         *
+         * @param offset 索引
+         * @param str 字符串
+         * @return 是否匹配
+         */
+        boolean regionMatches(int offset, String str) {
+            if (offset < 0 || offset + str.length() > length()) {
+                return false;
+            }
+            for (int i = 0; i < str.length(); i++) {
+                if (!chEqual(charAt(offset + i), str.charAt(i), true)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 字符串内容源
+     */
+    private static final class StringSource extends Source {
+
+        /**
+         * 字符串
+         */
+        final String str;
+
+        StringSource(String str) {
+            this.str = str;
+        }
+
+        @Override
+        int length() {
+            return str.length();
+        }
+
+        @Override
+        char charAt(int index) {
+            return str.charAt(index);
+        }
+
+        @Override
+        String substring(int start, int end) {
+            return str.substring(start, end);
+        }
+
+        @Override
+        CharSequence slice(int start, int end) {
+            return new Slice(str, start, end);
+        }
+
+        @Override
+        int indexOf(char ch, int start) {
+            return str.indexOf(ch, start);
+        }
+
+        @Override
+        int indexOf(String str, int start) {
+            return this.str.indexOf(str, start);
+        }
+
+        @Override
+        boolean startsWith(String prefix, int offset) {
+            return str.startsWith(prefix, offset);
+        }
+
+        @Override
+        boolean regionMatches(int offset, String str) {
+            return this.str.regionMatches(true, offset, str, 0, str.length());
+        }
+    }
+
+    /**
+     * 字符缓冲区内容源，用于流式读取时的滑动窗口
+     */
+    private static final class BufferSource extends Source {
+
+        /**
+         * 缓冲区
+         */
+        char[] buff;
+        /**
+         * 缓冲区有效长度
+         */
+        int length;
+
+        BufferSource(int capacity) {
+            this.buff = new char[capacity];
+            this.length = 0;
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        char charAt(int index) {
+            return buff[index];
+        }
+
+        @Override
+        String substring(int start, int end) {
+            return new String(buff, start, end - start);
+        }
+
+        /**
+         * 丢弃指定索引前的内容
+         *
+         * @param start 保留内容的起始索引
+         */
+        void compact(int start) {
+            if (start > 0) {
+                System.arraycopy(buff, start, buff, 0, length - start);
+                length -= start;
+            }
+        }
+
+        /**
+         * 从读取器填充缓冲区，缓冲区已满时扩容
+         *
+         * @param reader 读取器
+         * @param maxSize 缓冲区大小上限
+         * @return 读取的字符数，读取到结束返回-1
+         * @throws IOException 读取错误，或缓冲区已满且达到上限
+         */
+        int fill(Reader reader, int maxSize) throws IOException {
+            if (length == buff.length) {
+                if (length >= maxSize) {
+                    throw new IOException("token exceeds maximum size of " + maxSize + " characters");
+                }
+                char[] newBuff = new char[(int) Math.min((long) buff.length * 2, maxSize)];
+                System.arraycopy(buff, 0, newBuff, 0, length);
+                buff = newBuff;
+            }
+            int read = reader.read(buff, length, buff.length - length);
+            if (read > 0) {
+                length += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * UTF-8字节内容源，直接扫描字节，只在截取字符串时解码<br/>
+     * 标签语法字符均为ASCII，UTF-8多字节字符的各字节都不小于0x80，不会与语法字符混淆
+     */
+    private static final class ByteSource extends Source {
+
+        /**
+         * UTF-8字符集
+         */
+        static final Charset UTF8 = Charset.forName("UTF-8");
+        /**
+         * 字节缓冲区
+         */
+        final ByteBuffer buff;
+        /**
+         * 内容长度
+         */
+        final int length;
+
+        ByteSource(ByteBuffer buff) {
+            this.buff = buff;
+            this.length = buff.limit();
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        char charAt(int index) {
+            return (char) (buff.get(index) & 0xFF);
+        }
+
+        @Override
+        String substring(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            ByteBuffer slice = buff.duplicate();
+            slice.position(start);
+            slice.get(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        @Override
+        CharSequence slice(int start, int end) {
+            return new ByteSlice(this, start, end);
+        }
+
+        @Override
+        int indexOf(char ch, int start) {
+            if (ch < 0x80) {
+                byte b = (byte) ch;
+                for (int i = start; i < length; i++) {
+                    if (buff.get(i) == b) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 以只读方式映射文件
+         *
+         * @param file 文件
+         * @return 字节内容源
+         */
+        static ByteSource map(File file) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("File too large to map: " + file);
+                }
+                return new ByteSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * 构造状态，同一次解析中构造的节点共享，延迟构造子节点时继续使用
+     */
+    private static final class BuildState {
+
+        /**
+         * 内容源
+         */
+        final Source source;
+        /**
+         * 解析选项
+         */
+        final Options options;
+        /**
+         * 名称符号表
+         */
+        final SymbolTable symbols;
+        /**
+         * 文档索引，构造的元素同时加入索引，为null时不建立索引
+         */
+        DocumentIndex index;
+        /**
+         * 跳过元素内容时记录的子孙元素内容起始索引，按升序排列，延迟构造子节点时直接使用，不再重复扫描
+         */
+        int[] skipStarts;
+        /**
+         * 子孙元素内容截止索引和结束标签后的索引，与skipStarts对应
+         */
+        int[] skipEnds, skipNexts;
+        /**
+         * 记录的子孙元素数量
+         */
+        int skipCount;
+
+        BuildState(Source source, Options options) {
+            this.source = source;
+            this.options = options;
+            this.symbols = new SymbolTable();
+        }
+
+        /**
+         * 记录子孙元素的内容起始索引，起始索引须大于已记录的索引
+         *
+         * @param start 内容起始索引
+         * @return 记录位置，不能保持升序时返回-1
+         */
+        int addSkip(int start) {
+            if (skipCount > 0 && start <= skipStarts[skipCount - 1]) {
+                return -1;
+            }
+            if (skipStarts == null) {
+                skipStarts = new int[64];
+                skipEnds = new int[64];
+                skipNexts = new int[64];
+            } else if (skipCount == skipStarts.length) {
+                int capacity = skipCount * 2;
+                int[] newStarts = new int[capacity];
+                int[] newEnds = new int[capacity];
+                int[] newNexts = new int[capacity];
+                System.arraycopy(skipStarts, 0, newStarts, 0, skipCount);
+                System.arraycopy(skipEnds, 0, newEnds, 0, skipCount);
+                System.arraycopy(skipNexts, 0, newNexts, 0, skipCount);
+                skipStarts = newStarts;
+                skipEnds = newEnds;
+                skipNexts = newNexts;
+            }
+            skipStarts[skipCount] = start;
+            return skipCount++;
+        }
+
+        /**
+         * 查找记录的子孙元素
+         *
+         * @param start 内容起始索引
+         * @return 记录位置，没有记录时返回-1
+         */
+        int findSkip(int start) {
+            int index = skipCount == 0 ? -1 : Arrays.binarySearch(skipStarts, 0, skipCount, start);
+            return index >= 0 ? index : -1;
+        }
+    }
+
+    /**
+     * 文档索引，按小写标签名、ID和类名记录元素，查找时按文档顺序返回<br/>
+     * 增删节点只更新集合，文档顺序在查找时按需重新排序
+     */
+    private static final class DocumentIndex {
+
+        /**
+         * 按小写标签名记录的元素
+         */
+        final HashMap<String, Entry> tags = new HashMap<String, Entry>();
+        /**
+         * 按ID记录的元素
+         */
+        final HashMap<String, Entry> ids = new HashMap<String, Entry>();
+        /**
+         * 按类名记录的元素
+         */
+        final HashMap<String, Entry> classes = new HashMap<String, Entry>();
+        /**
+         * 按小写属性名记录的属性值索引
+         */
+        final HashMap<String, AttrIndex> attrs = new HashMap<String, AttrIndex>();
+        /**
+         * 按文档顺序比较元素，需先编号
+         */
+        static final Comparator<NodeElement> ORDER = new Comparator<NodeElement>() {
+
+            @Override
+            public int compare(NodeElement o1, NodeElement o2) {
+                return o1.order < o2.order ? -1 : (o1.order == o2.order ? 0 : 1);
+            }
+        };
+        /**
+         * 版本，集合顺序可能与文档顺序不同时增加
+         */
+        int version;
+        /**
+         * 元素顺序编号时的版本
+         */
+        int orderVersion = -1;
+
+        /**
+         * 索引项
+         */
+        static final class Entry {
+
+            /**
+             * 元素集合
+             */
+            LinkedHashSet<NodeElement> elements = new LinkedHashSet<NodeElement>();
+            /**
+             * 集合按文档顺序排列时的版本
+             */
+            int version;
+            /**
+             * 按文档顺序排列的元素副本，集合变化后为null
+             */
+            ArrayList<NodeElement> list;
+        }
+
+        /**
+         * 属性值索引，按完整值（有序，用于前缀查找）和空白分隔的值记录元素
+         */
+        static final class AttrIndex {
+
+            /**
+             * 属性名
+             */
+            final String name;
+            /**
+             * 按完整值记录的元素
+             */
+            final TreeMap<String, Entry> values = new TreeMap<String, Entry>();
+            /**
+             * 按空白分隔的值记录的元素
+             */
+            final HashMap<String, Entry> tokens = new HashMap<String, Entry>();
+
+            AttrIndex(String name) {
+                this.name = name;
+            }
+        }
+
+        /**
+         * 按解析选项创建文档索引
+         *
+         * @param options 解析选项
+         * @return 文档索引，不需要索引时返回null
+         */
+        static DocumentIndex create(Options options) {
+            if (options.index || options.indexAttrs != null) {
+                return new DocumentIndex(options.indexAttrs);
+            }
+            return null;
+        }
+
+        /**
+         * @param attrNames 需要建立值索引的属性名
+         */
+        DocumentIndex(String[] attrNames) {
+            if (attrNames != null) {
+                for (String name : attrNames) {
+                    String lower = name.toLowerCase();
+                    attrs.put(lower, new AttrIndex(lower));
+                }
+            }
+        }
+
+        /**
+         * 属性修改后是否需要更新索引
+         *
+         * @param name 属性名
+         * @return 是否需要更新
+         */
+        boolean covers(String name) {
+            return "id".equalsIgnoreCase(name) || "class".equalsIgnoreCase(name)
+                    || (!attrs.isEmpty() && attrs.containsKey(name.toLowerCase()));
+        }
+
+        /**
+         * 查找属性值满足条件的索引项
+         *
+         * @param name 属性名
+         * @param oper 操作符，' '完全相等，'^'前缀，'~'空白分隔的值之一
+         * @param value 属性值
+         * @return 索引项组，属性没有索引或操作符不支持时返回null
+         */
+        ArrayList<Entry> lookup(String name, char oper, String value) {
+            AttrIndex attrIndex = attrs.isEmpty() ? null : attrs.get(name.toLowerCase());
+            if (attrIndex == null || value == null) {
+                return null;
+            }
+            ArrayList<Entry> entries = new ArrayList<Entry>();
+            Entry entry;
+            switch (oper) {
+                case 0:
+                case ' ':
+                    entry = attrIndex.values.get(value);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                    break;
+                case '~':
+                    entry = attrIndex.tokens.get(value);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                    break;
+                case '^':
+                    if (value.isEmpty()) {
+                        return null;
+                    }
+                    //以前缀开头的值在有序表中连续
+                    for (Map.Entry<String, Entry> item : attrIndex.values.tailMap(value).entrySet()) {
+                        if (!item.getKey().startsWith(value)) {
+                            break;
+                        }
+                        entries.add(item.getValue());
+                    }
+                    break;
+                default:
+                    return null;
+            }
+            return entries;
+        }
+
+        /**
+         * 合并索引项中的元素并按文档顺序排列
+         *
+         * @param entries 索引项组
+         * @param context 文档中的任一节点
+         * @return 元素组
+         */
+        ArrayList<NodeElement> ordered(ArrayList<Entry> entries, Node context) {
+            ArrayList<NodeElement> result = new ArrayList<NodeElement>();
+            for (Entry entry : entries) {
+                if (entry.version != version) {
+                    sort(entry, context);
+                }
+                result.addAll(entry.elements);
+            }
+            if (entries.size() > 1) {
+                renumber(context);
+                Collections.sort(result, ORDER);
+            }
+            return result;
+        }
+
+        /**
+         * 加入节点及其所有子孙元素
+         *
+         * @param node 节点
+         */
+        void addTree(Node node) {
+            version++;
+            addAll(node);
+        }
+
+        private void addAll(Node node) {
+            if (node instanceof NodeElement) {
+                add((NodeElement) node);
+            }
+            ArrayList<Node> list = node.getChildren();
+            if (list != null) {
+                for (Node child : list) {
+                    addAll(child);
+                }
+            }
+        }
+
+        /**
+         * 移除节点及其所有子孙元素
+         *
+         * @param node 节点
+         */
+        void removeTree(Node node) {
+            if (node instanceof NodeElement) {
+                remove((NodeElement) node);
+            }
+            ArrayList<Node> list = node.children;
+            if (list != null) {
+                for (Node child : list) {
+                    removeTree(child);
+                }
+            }
+        }
+
+        /**
+         * 加入元素
+         *
+         * @param element 元素
+         */
+        void add(NodeElement element) {
+            put(tags, element.getLowerName(), element);
+            put(ids, element.getAttrValue("id"), element);
+            String className = element.getAttrValue("class");
+            if (className != null) {
+                for (String cn : className.split("\\s")) {
+                    put(classes, cn, element);
+                }
+            }
+            if (!attrs.isEmpty()) {
+                for (AttrIndex attrIndex : attrs.values()) {
+                    String value = element.getAttrValue(attrIndex.name);
+                    if (value != null) {
+                        put(attrIndex.values, value, element);
+                        for (String token : value.split("\\s")) {
+                            put(attrIndex.tokens, token, element);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 移除元素
+         *
+         * @param element 元素
+         */
+        void remove(NodeElement element) {
+            take(tags, element.getLowerName(), element);
+            take(ids, element.getAttrValue("id"), element);
+            String className = element.getAttrValue("class");
+            if (className != null) {
+                for (String cn : className.split("\\s")) {
+                    take(classes, cn, element);
+                }
+            }
+            if (!attrs.isEmpty()) {
+                for (AttrIndex attrIndex : attrs.values()) {
+                    String value = element.getAttrValue(attrIndex.name);
+                    if (value != null) {
+                        take(attrIndex.values, value, element);
+                        for (String token : value.split("\\s")) {
+                            take(attrIndex.tokens, token, element);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void put(Map<String, Entry> map, String key, NodeElement element) {
+            if (key != null) {
+                Entry entry = map.get(key);
+                if (entry == null) {
+                    entry = new Entry();
+                    entry.version = version;
+                    map.put(key, entry);
+                }
+                entry.elements.add(element);
+                entry.list = null;
+            }
+        }
+
+        private void take(Map<String, Entry> map, String key, NodeElement element) {
+            if (key != null) {
+                Entry entry = map.get(key);
+                if (entry != null) {
+                    entry.elements.remove(element);
+                    entry.list = null;
+                    if (entry.elements.isEmpty()) {
+                        map.remove(key);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 查找上下文节点下的元素
+         *
+         * @param map 索引
+         * @param key 键
+         * @param context 上下文节点
+         * @param name 需要区分大小写匹配的标签名，为null时不匹配
+         * @return 按文档顺序排列的元素组
+         */
+        ArrayList<NodeElement> descendants(Map<String, Entry> map, String key, Node context, String name) {
+            ArrayList<Node> contexts = new ArrayList<Node>(1);
+            contexts.add(context);
+            return descendants(map, key, contexts, name);
+        }
+
+        /**
+         * 查找任一上下文节点下的元素
+         *
+         * @param map 索引
+         * @param key 键
+         * @param contexts 上下文节点组
+         * @param name 需要区分大小写匹配的标签名，为null时不匹配
+         * @return 按文档顺序排列且不重复的元素组
+         */
+        ArrayList<NodeElement> descendants(Map<String, Entry> map, String key, ArrayList<Node> contexts, String name) {
+            Entry entry = key == null ? null : map.get(key);
+            if (entry == null || contexts.isEmpty()) {
+                return new ArrayList<NodeElement>();
+            }
+            return within(sorted(entry, contexts.get(0)), contexts, name);
+        }
+
+        /**
+         * 从按文档顺序排列的元素中选出任一上下文节点下的元素；子树内的元素编号连续，
+         * 按各上下文节点的编号区间二分查找，不逐个回溯元素的祖先
+         *
+         * @param list 按文档顺序排列的元素组
+         * @param contexts 上下文节点组，不能为空
+         * @param name 需要区分大小写匹配的标签名，为null时不匹配
+         * @return 按文档顺序排列且不重复的元素组
+         */
+        ArrayList<NodeElement> within(ArrayList<NodeElement> list, ArrayList<Node> contexts, String name) {
+            ArrayList<NodeElement> result = new ArrayList<NodeElement>();
+            renumber(contexts.get(0));
+            long[] ranges = new long[contexts.size()];
+            int count = 0;
+            for (Node context : contexts) {
+                if (context instanceof NodeElement) {
+                    ranges[count++] = (long) (((NodeElement) context).order + 1) << 32 | lastOrder((NodeElement) context);
+                } else if (context.parent == null) {//文档根节点
+                    ranges[0] = Integer.MAX_VALUE;
+                    count = 1;
+                    break;
+                }
+            }
+            Arrays.sort(ranges, 0, count);
+            int covered = -1;
+            for (int r = 0; r < count; r++) {
+                int from = (int) (ranges[r] >>> 32);
+                int to = (int) ranges[r];
+                if (from <= covered) {//嵌套在之前的上下文节点中
+                    continue;
+                }
+                covered = to;
+                int low = 0;
+                int high = list.size();
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (list.get(mid).order < from) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                for (int i = low; i < list.size(); i++) {
+                    NodeElement element = list.get(i);
+                    if (element.order > to) {
+                        break;
+                    }
+                    if (name == null || name.equals(element.name)) {
+                        result.add(element);
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 获取索引项中按文档顺序排列且编号有效的元素
+         *
+         * @param entry 索引项
+         * @param context 文档中的任一节点
+         * @return 元素组，不可修改
+         */
+        private ArrayList<NodeElement> sorted(Entry entry, Node context) {
+            if (entry.version != version) {
+                sort(entry, context);
+            } else {
+                renumber(context);
+            }
+            if (entry.list == null) {
+                entry.list = new ArrayList<NodeElement>(entry.elements);
+            }
+            return entry.list;
+        }
+
+        /**
+         * 获取元素子树中最后一个元素的编号
+         *
+         * @param element 元素
+         * @return 编号
+         */
+        private static int lastOrder(NodeElement element) {
+            NodeElement last = element;
+            while (last.children != null) {
+                NodeElement child = null;
+                for (int i = last.children.size() - 1; i >= 0 && child == null; i--) {
+                    Node node = last.children.get(i);
+                    if (node instanceof NodeElement) {
+                        child = (NodeElement) node;
+                    }
+                }
+                if (child == null) {
+                    break;
+                }
+                last = child;
+            }
+            return last.order;
+        }
+
+        /**
+         * 将索引项按文档顺序重新排列
+         *
+         * @param entry 索引项
+         * @param context 文档中的任一节点
+         */
+        private void sort(Entry entry, Node context) {
+            renumber(context);
+            ArrayList<NodeElement> list = new ArrayList<NodeElement>(entry.elements);
+            Collections.sort(list, ORDER);
+            entry.elements = new LinkedHashSet<NodeElement>(list);
+            entry.list = list;
+            entry.version = version;
+        }
+
+        /**
+         * 文档结构改变后重新为元素编号
+         *
+         * @param context 文档中的任一节点
+         */
+        private void renumber(Node context) {
+            if (orderVersion != version) {
+                Node node = context;
+                while (node.parent != null) {
+                    node = node.parent;
+                }
+                number(node, 0);
+                orderVersion = version;
+            }
+        }
+
+        /**
+         * 按文档顺序为元素编号
+         *
+         * @param node 节点
+         * @param order 起始编号
+         * @return 下一个编号
+         */
+        private int number(Node node, int order) {
+            if (node instanceof NodeElement) {
+                ((NodeElement) node).order = order++;
+            }
+            if (node.children != null) {
+                for (Node child : node.children) {
+                    order = number(child, order);
+                }
+            }
+            return order;
+        }
+    }
+
+    /**
+     * 名称符号表，扫描时直接以内容源索引查找标签名和属性名，相同名称共享同一字符串，
+     * 并预先计算小写形式；超出容量后不再加入新名称
+     */
+    private static final class SymbolTable {
+
+        /**
+         * 最多保存的名称数量
+         */
+        static final int MAX_SYMBOLS = 4096;
+        /**
+         * 名称
+         */
+        String[] names = new String[64];
+        /**
+         * 名称对应的小写名称
+         */
+        String[] lowers = new String[64];
+        /**
+         * 名称数量
+         */
+        int size;
+
+        /**
+         * 查找名称，不存在时加入
+         *
+         * @param source 内容源
+         * @param start 名称起始索引
+         * @param end 名称截止索引
+         * @return 名称所在位置，无法加入时返回-1
+         */
+        int lookup(Source source, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                char ch = source.charAt(i);
+                if (ch >= 0x80 && source instanceof ByteSource) {
+                    return -1;//字节内容源的非ASCII名称需要解码，不加入
+                }
+                hash = 31 * hash + ch;
+            }
+            int mask = names.length - 1;
+            int slot = spread(hash) & mask;
+            String name;
+            while ((name = names[slot]) != null) {
+                if (name.hashCode() == hash && name.length() == end - start && source.startsWith(name, start)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size >= MAX_SYMBOLS) {
+                return -1;
+            }
+            return add(source.substring(start, end));
+        }
+
+        /**
+         * 查找字符串名称，不存在时加入
+         *
+         * @param str 名称
+         * @return 名称所在位置，无法加入时返回-1
+         */
+        int lookup(String str) {
+            int mask = names.length - 1;
+            int slot = spread(str.hashCode()) & mask;
+            String name;
+            while ((name = names[slot]) != null) {
+                if (name.equals(str)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size >= MAX_SYMBOLS) {
+                return -1;
+            }
+            return add(str);
+        }
+
+        /**
+         * 加入名称
+         *
+         * @param name 名称
+         * @return 名称所在位置
+         */
+        private int add(String name) {
+            String lower = name.toLowerCase();
+            if (lower.equals(name)) {
+                lower = name;
+            } else {//先加入小写名称，其可能扩容并改变各名称的位置
+                int lowerSlot = lookup(lower);
+                if (lowerSlot >= 0) {
+                    lower = names[lowerSlot];
+                }
+            }
+            if ((size + 1) * 2 > names.length) {
+                rehash(names.length * 2);
+            }
+            int mask = names.length - 1;
+            int slot = spread(name.hashCode()) & mask;
+            while (names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = name;
+            lowers[slot] = lower;
+            size++;
+            assert consistent();
+            return slot;
+        }
+
+        /**
+         * 检查每个名称都有小写名称，用于断言
+         *
+         * @return 是否一致
+         */
+        private boolean consistent() {
+            for (int i = 0; i < names.length; i++) {
+                if ((names[i] == null) != (lowers[i] == null)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 扩容
+         *
+         * @param capacity 新容量
+         */
+        private void rehash(int capacity) {
+            String[] oldNames = names;
+            String[] oldLowers = lowers;
+            names = new String[capacity];
+            lowers = new String[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldNames.length; i++) {
+                if (oldNames[i] != null) {
+                    int slot = spread(oldNames[i].hashCode()) & mask;
+                    while (names[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    names[slot] = oldNames[i];
+                    lowers[slot] = oldLowers[i];
+                }
+            }
+        }
+
+        /**
+         * 判断内容源中的名称是否与元素名称相等
+         *
+         * @param source 内容源
+         * @param start 名称起始索引
+         * @param end 名称截止索引
+         * @param element 元素节点
+         * @param ignoreCase 是否忽略大小写
+         * @return 是否相等
+         */
+        boolean match(Source source, int start, int end, NodeElement element, boolean ignoreCase) {
+            int slot = lookup(source, start, end);
+            if (slot < 0) {
+                return strEqual(source.substring(start, end), element.name, ignoreCase);
+            }
+            return ignoreCase ? nameEqual(lowers[slot], element.getLowerName()) : nameEqual(names[slot], element.name);
+        }
+
+        /**
+         * 判断名称是否相等，符号表中的名称通常为同一字符串
+         *
+         * @param name1 名称1
+         * @param name2 名称2
+         * @return 是否相等
+         */
+        private static boolean nameEqual(String name1, String name2) {
+            if (name1 == name2) {
+                return true;
+            }
+            return name1 != null && name2 != null && name1.hashCode() == name2.hashCode() && name1.equals(name2);
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * 字符串片段视图，以索引引用共享的字符串，只在toString时创建字符串
+     */
+    private static final class Slice implements CharSequence {
+
+        /**
+         * 共享的字符串
+         */
+        final String str;
+        /**
+         * 起始索引
+         */
+        final int start;
+        /**
+         * 截止索引
+         */
+        final int end;
+
+        Slice(String str, int start, int end) {
+            this.str = str;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return str.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Slice(str, this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            return str.substring(start, end);
+        }
+    }
+
+    /**
+     * 字节内容源片段视图，以字节索引引用映射的内容，首次读取字符时才解码并缓存
+     */
+    private static final class ByteSlice implements CharSequence {
+
+        /**
+         * 字节内容源
+         */
+        final ByteSource source;
+        /**
+         * 起始字节索引
+         */
+        final int start;
+        /**
+         * 截止字节索引
+         */
+        final int end;
+        /**
+         * 解码后的字符串，尚未解码时为null
+         */
+        private String decoded;
+
+        ByteSlice(ByteSource source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return toString().length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return toString().charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            if (decoded == null) {
+                decoded = source.substring(start, end);
+            }
+            return decoded;
+        }
+    }
+
+    /**
+     * 属性扫描结果的接收者，以内容源索引接收属性
+     */
+    private static interface AttrSink {
+
+        /**
+         * 接收属性
+         *
+         * @param source 内容源
+         * @param nameStart 属性名称起始索引
+         * @param nameEnd 属性名称截止索引
+         * @param valueStart 属性值起始索引，无属性值则为-1
+         * @param valueEnd 属性值截止索引
+         * @param quote 引用字符，无引用字符则为0
+         */
+        public void attribute(Source source, int nameStart, int nameEnd, int valueStart, int valueEnd, char quote);
+    }
+
+    /**
+     * 将属性转发给事件处理器
+     */
+    private static final class HandlerAttrSink implements AttrSink {
+
+        /**
+         * 事件处理器
+         */
+        final Handler handler;
+
+        HandlerAttrSink(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void attribute(Source source, int nameStart, int nameEnd, int valueStart, int valueEnd, char quote) {
+            if (valueStart < 0) {//无属性值的属性不报告默认引用字符
+                handler.attribute(source.substring(nameStart, nameEnd), null, Attribute.NONE_QUOTE);
+            } else {
+                handler.attribute(source.substring(nameStart, nameEnd), source.substring(valueStart, valueEnd), quote);
+            }
+        }
+    }
+
+    /**
+     * 将属性收集为属性组
+     */
+    private static final class AttrCollector implements AttrSink {
+
+        /**
+         * 收集到的属性组
+         */
+        ArrayList<Attribute> attrs;
+        /**
+         * 是否以源内容视图保存属性值
+         */
+        boolean slice;
+        /**
+         * 名称符号表，为null时不复用名称
+         */
+        SymbolTable symbols;
+
+        @Override
+        public void attribute(Source source, int nameStart, int nameEnd, int valueStart, int valueEnd, char quote) {
+            int slot = symbols == null ? -1 : symbols.lookup(source, nameStart, nameEnd);
+            String name = slot >= 0 ? symbols.names[slot] : source.substring(nameStart, nameEnd);
+            if (valueStart < 0) {
+                attrs.add(new Attribute(name, null));
+            } else if (slice) {
+                Attribute attr = new Attribute(name, null, quote);
+                attr.valueView = source.slice(valueStart, valueEnd);
+                attrs.add(attr);
+            } else {
+                attrs.add(new Attribute(name, source.substring(valueStart, valueEnd), quote));
+            }
+        }
+    }
+
+    /**
+     * 文档根节点
+     */
+    public Node document;
+    /**
+     * 源内容，以记录节点位置的选项创建时保存，用于局部更新
+     */
+    private String text;
+    /**
+     * 解析选项，用于局部更新
+     */
+    private Options options;
+
+    /**
+     * 文档构造函数
+     */
+    private DomParser(Node document) {
+        this.document = document;
+    }
+
+    @Override
+    public String toString() {
+        return document.toString();
+    }
+
+    /**
+     * 局部更新源内容，只重新解析包含修改范围的最小元素内容，并只替换其中受影响的子节点，
+     * 其余节点保持不变；修改破坏元素结构时逐层扩大到上层元素，直至整个文档<br/>
+     * 需要以记录节点位置的选项创建文档
+     *
+     * @param start 修改的起始索引
+     * @param end 修改的截止索引
+     * @param replacement 替换的内容
+     * @return 重新解析内容的节点，元素或文档根节点
+     */
+    public Node update(int start, int end, String replacement) {
+        if (text == null) {
+            throw new IllegalStateException("document created without spans");
+        }
+        if (start < 0 || end < start || end > text.length()) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + text.length());
+        }
+        String newText = text.substring(0, start) + replacement + text.substring(end);
+        int delta = replacement.length() - (end - start);
+        BuildState state = new BuildState(new StringSource(newText), options);
+        //由外向内记录包含修改范围的元素
+        ArrayList<NodeElement> path = new ArrayList<NodeElement>();
+        NodeElement element = enclosingChild(document, start, end);
+        while (element != null) {
+            path.add(element);
+            element = enclosingChild(element, start, end);
+        }
+        Node target = document;
+        Node container = null;
+        for (int i = path.size() - 1; i >= 0 && container == null; i--) {
+            element = path.get(i);
+            container = reparse(state, element, element.contentStart, element.contentEnd + delta);
+            if (container != null) {
+                target = element;
+            }
+        }
+        if (container == null) {//重新解析整个文档
+            container = new Node();
+            build(container, state, 0, newText.length());
+        }
+        ArrayList<Node> oldChildren = target.children != null ? target.children : new ArrayList<Node>();
+        ArrayList<Node> newChildren = container.children != null ? container.children : new ArrayList<Node>();
+        //修改范围之前未受影响的子节点
+        int prefix = 0;
+        while (prefix < oldChildren.size() && prefix < newChildren.size()) {
+            Node oldChild = oldChildren.get(prefix);
+            Node newChild = newChildren.get(prefix);
+            if (oldChild.sourceEnd < 0 || oldChild.sourceEnd >= start
+                    || oldChild.sourceStart != newChild.sourceStart || oldChild.sourceEnd != newChild.sourceEnd) {
+                break;
+            }
+            prefix++;
+        }
+        //修改范围之后从同一位置开始的子节点，其后内容解析结果相同
+        int oldSuffix = prefix;
+        while (oldSuffix < oldChildren.size() && oldChildren.get(oldSuffix).sourceStart < end) {
+            oldSuffix++;
+        }
+        int newSuffix = prefix;
+        while (oldSuffix < oldChildren.size() && newSuffix < newChildren.size()) {
+            int oldStart = oldChildren.get(oldSuffix).sourceStart + delta;
+            int newStart = newChildren.get(newSuffix).sourceStart;
+            if (oldStart == newStart) {
+                break;
+            } else if (oldStart < newStart) {
+                oldSuffix++;
+            } else {
+                newSuffix++;
+            }
+        }
+        if (oldSuffix >= oldChildren.size() || newSuffix >= newChildren.size()) {
+            oldSuffix = oldChildren.size();
+            newSuffix = newChildren.size();
+        }
+        shiftSpans(document, start, end, delta);
+        ArrayList<Node> removed = new ArrayList<Node>(oldChildren.subList(prefix, oldSuffix));
+        for (Node child : removed) {
+            target.removeChild(child);
+        }
+        for (int i = prefix; i < newSuffix; i++) {
+            target.addChild(newChildren.get(i), i);
+        }
+        text = newText;
+        return target;
+    }
+
+    /**
+     * 查找内容包含指定范围的子元素
+     *
+     * @param node 节点
+     * @param start 起始索引
+     * @param end 截止索引
+     * @return 子元素，没有找到返回null
+     */
+    private static NodeElement enclosingChild(Node node, int start, int end) {
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child.sourceStart > start) {
+                    break;
+                }
+                if (child instanceof NodeElement) {
+                    NodeElement element = (NodeElement) child;
+                    if (element.contentStart >= 0 && element.contentEnd >= 0
+                            && element.contentStart <= start && end <= element.contentEnd) {
+                        return element;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 重新解析元素内容，内容必须在截止索引处结束且结构完整，结束标签仍与元素匹配
+     *
+     * @param state 构造状态
+     * @param element 元素
+     * @param start 内容起始索引
+     * @param end 内容截止索引
+     * @return 包含新子节点的临时元素，内容结构改变时返回null
+     */
+    private static Node reparse(BuildState state, NodeElement element, int start, int end) {
+        Source source = state.source;
+        boolean xmlmode = state.options.xmlmode;
+        Token token = new Token();
+        ArrayList<String> stack = new ArrayList<String>();
+        stack.add(element.name);
+        int index = start;
+        while (index < end) {
+            int next = scanToken(source, index, source.length(), xmlmode, true, token);
+            if (next < 0 || next > end) {
+                return null;//词法单元越过元素内容
+            }
+            if (token.type == Token.START && !token.closed && !token.special) {
+                stack.add(source.substring(token.nameStart, token.nameEnd));
+            } else if (token.type == Token.END
+                    && strEqual(source.substring(token.nameStart, token.nameEnd), stack.get(stack.size() - 1), !xmlmode)) {
+                stack.remove(stack.size() - 1);
+                if (stack.isEmpty()) {
+                    return null;//元素提前结束
+                }
+            }
+            index = next;
+        }
+        if (stack.size() != 1) {
+            return null;//子元素未结束，结束标签不再与元素匹配
+        }
+        NodeElement holder = new NodeElement(element.name, null, false);
+        build(holder, state, start, end);
+        return holder;
+    }
+
+    /**
+     * 修改源内容后移动节点位置
+     *
+     * @param node 节点
+     * @param start 修改的起始索引
+     * @param end 修改的截止索引
+     * @param delta 位置变化量
+     */
+    private static void shiftSpans(Node node, int start, int end, int delta) {
+        boolean after = node.sourceEnd < 0 || node.sourceEnd > start;
+        if (node.sourceStart >= end) {
+            node.sourceStart += delta;
+        }
+        if (node.sourceEnd > start) {
+            node.sourceEnd += delta;
+        }
+        if (node instanceof NodeElement) {
+            NodeElement element = (NodeElement) node;
+            if (element.contentStart > start) {
+                element.contentStart += delta;
+            }
+            if (element.contentEnd >= end) {
+                element.contentEnd += delta;
+            }
+        }
+        if (after && node.children != null) {
+            for (Node child : node.children) {
+                shiftSpans(child, start, end, delta);
+            }
+        }
+    }
+
+    /**
+     * 创建元素节点
+     *
+     * @param name 节点标签名
+     * @return 元素节点对象
+     */
+    public static NodeElement createElement(String name) {
+        return new NodeElement(name);
+    }
+
+    /**
+     * 创建空文档
+     *
+     * @return 空文档对象
+     */
+    public static DomParser create() {
+        return new DomParser(new Node());
+    }
+
+    /**
+     * 创建构造的文档
+     *
+     * @param document 文档根节点
+     * @return 文档对象
+     */
+    public static DomParser create(Node document) {
+        return new DomParser(document);
+    }
+
+    /**
+     * 创建转换字符串为DOM文档
+     *
+     * @param document 文档字符串
+     * @return 文档对象
+     */
+    public static DomParser create(String document) {
+        return new DomParser(build(document, false));
+    }
+
+    /**
+     * 创建转换字符串为DOM文档
+     *
+     * @param document 文档字符串
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @return 文档对象
+     */
+    public static DomParser create(String document, boolean xmlmode) {
+        return new DomParser(build(document, xmlmode));
+    }
+
+    /**
+     * 创建转换字符串为DOM文档
+     *
+     * @param document 文档字符串
+     * @param options 解析选项
+     * @return 文档对象
+     */
+    public static DomParser create(String document, Options options) {
+        DomParser parser = new DomParser(build(document, options));
+        if (options.spans) {
+            parser.text = document;
+            parser.options = options;
+        }
+        return parser;
+    }
+
+    /**
+     * 并行创建转换字符串为DOM文档，根元素的子节点按段在线程池中构造，结果与顺序解析相同
+     *
+     * @param document 文档字符串
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @param executor 线程池
+     * @return 文档对象
+     * @throws InterruptedException 等待解析结果时被中断
+     */
+    public static DomParser createParallel(String document, boolean xmlmode, ExecutorService executor) throws InterruptedException {
+        return createParallel(document, new Options().xmlmode(xmlmode), executor);
+    }
+
+    /**
+     * 并行创建转换字符串为DOM文档，根元素的子节点按段在线程池中构造，结果与顺序解析相同
+     *
+     * @param document 文档字符串
+     * @param options 解析选项
+     * @param executor 线程池
+     * @return 文档对象
+     * @throws InterruptedException 等待解析结果时被中断
+     */
+    public static DomParser createParallel(String document, Options options, ExecutorService executor) throws InterruptedException {
+        DomParser parser = new DomParser(buildParallel(document, options, executor));
+        if (options.spans) {
+            parser.text = document;
+            parser.options = options;
+        }
+        return parser;
+    }
+
+    /**
+     * 从文件读取DOM文档
+     *
+     * @param file 文件
+     * @return 文档对象
+     */
+    public static DomParser create(File file) throws IOException {
+        return create(file, null);
+    }
+
+    /**
+     * 从文件读取DOM文档
+     *
+     * @param file 文件
+     * @param encode 文件编码
+     * @return 文档对象
+     */
+    public static DomParser create(File file, String encode) throws IOException {
+        return create(read(file, encode));
+    }
+
+    /**
+     * 批量解析文件，结果按完成顺序返回
+     *
+     * @param files 文件组
+     * @param encode 文件编码，null为默认编码
+     * @param options 解析选项，null为默认选项
+     * @param executor 线程池，可使用虚拟线程的线程池
+     * @param maxBytes 在途文件的总字节数上限
+     * @return 批量解析迭代器
+     */
+    public static Batch createBatch(Collection<? extends File> files, String encode, Options options,
+            ExecutorService executor, long maxBytes) {
+        return new Batch(files, encode, options, executor, maxBytes);
+    }
+
+    /**
+     * 创建记录处理流水线，在调用线程中读取记录，在线程池中处理
+     *
+     * @param <T> 处理结果类型
+     * @param records 记录流，如{@link #records(Cursor, String)}
+     * @param processor 记录处理器
+     * @param executor 线程池
+     * @param maxInFlight 在途记录数上限，达到上限时暂停读取
+     * @param ordered 是否按记录顺序返回结果，否则按完成顺序返回
+     * @return 处理结果迭代器
+     */
+    public static <T> Pipeline<T> createPipeline(Iterator<NodeElement> records, RecordProcessor<T> processor,
+            ExecutorService executor, int maxInFlight, boolean ordered) {
+        return new Pipeline<T>(records, processor, executor, maxInFlight, ordered);
+    }
+
+    /**
+     * 读取文件内容
+     *
+     * @param file 文件
+     * @param encode 文件编码，null为默认编码
+     * @return 文件内容
+     */
+    private static String read(File file, String encode) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader reader;
+        if (encode == null) {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+        } else {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), encode));
+        }
+        try {
+            int read;
+            char[] buff = new char[1024];
+            while ((read = reader.read(buff)) != -1) {
+                sb.append(buff, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 创建读取器的解析游标
+     *
+     * @param reader 读取器
+     * @return 解析游标
+     */
+    public static Cursor cursor(Reader reader) {
+        return new Cursor(reader, false, Cursor.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 创建读取器的解析游标
+     *
+     * @param reader 读取器
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @return 解析游标
+     */
+    public static Cursor cursor(Reader reader, boolean xmlmode) {
+        return new Cursor(reader, xmlmode, Cursor.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 创建输入流的解析游标
+     *
+     * @param in 输入流
+     * @param encode 编码，null使用默认编码
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @return 解析游标
+     */
+    public static Cursor cursor(InputStream in, String encode, boolean xmlmode) throws IOException {
+        Reader reader = encode == null ? new InputStreamReader(in) : new InputStreamReader(in, encode);
+        return new Cursor(reader, xmlmode, Cursor.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 创建文件的解析游标
+     *
+     * @param file 文件
+     * @param encode 文件编码，null使用默认编码
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @return 解析游标
+     */
+    public static Cursor cursor(File file, String encode, boolean xmlmode) throws IOException {
+        return cursor(new FileInputStream(file), encode, xmlmode);
+    }
+
+    /**
+     * 以游标流式提取满足选择器的元素，只支持子孙、子元素关系和属性选择器
+     *
+     * @param cursor 游标
+     * @param cssSelector css选择器
+     * @param limit 数量上限，小于等于0时不限
+     * @return 流式提取
+     */
+    public static Extraction extract(Cursor cursor, String cssSelector, int limit) {
+        return extract(cursor, Selector.CACHE.get(cssSelector), limit);
+    }
+
+    /**
+     * 以游标流式提取满足选择器的元素，只支持子孙、子元素关系和属性选择器
+     *
+     * @param cursor 游标
+     * @param selector 预编译的选择器
+     * @param limit 数量上限，小于等于0时不限
+     * @return 流式提取
+     */
+    public static Extraction extract(Cursor cursor, Selector selector, int limit) {
+        return new Extraction(cursor, selector, limit);
+    }
+
+    /**
+     * 以游标流式拆分记录，依次返回路径下的每个记录元素；记录不加入文档树，返回后不再被引用，
+     * 内存占用与文档大小无关
+     *
+     * @param cursor 游标
+     * @param path 从根元素到记录元素的标签名路径，以/分隔，如"students/student"，*匹配任意标签
+     * @return 记录元素的流式提取
+     */
+    public static Extraction records(Cursor cursor, String path) {
+        return new Extraction(cursor, Selector.path(path), 0);
+    }
+
+    /**
+     * 流式拆分文件中的记录
+     *
+     * @param file 文件
+     * @param encode 文件编码
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @param path 从根元素到记录元素的标签名路径，以/分隔，*匹配任意标签
+     * @return 记录元素的流式提取，使用后需关闭
+     * @throws IOException 打开文件错误
+     */
+    public static Extraction records(File file, String encode, boolean xmlmode, String path) throws IOException {
+        return records(cursor(file, encode, xmlmode), path);
+    }
+
+    /**
+     * 以内存映射方式读取UTF-8编码的文件为DOM文档，直接扫描字节，不解码整个文档
+     *
+     * @param file 文件
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @return 文档对象
+     */
+    public static DomParser createMapped(File file, boolean xmlmode) throws IOException {
+        return createMapped(file, new Options().xmlmode(xmlmode));
+    }
+
+    /**
+     * 以内存映射方式读取UTF-8编码的文件为DOM文档，直接扫描字节，不解码整个文档<br/>
+     * 选项开启slice时，文本、注释、CDATA、特殊标签内容、属性值和延迟解析的原始属性以字节区间引用映射的内容，
+     * 首次读取时才解码；否则这些内容在构造节点时解码
+     *
+     * @param file 文件
+     * @param options 解析选项
+     * @return 文档对象
+     */
+    public static DomParser createMapped(File file, Options options) throws IOException {
+        ByteSource source = ByteSource.map(file);
+        Node root = new Node();
+        root.index = DocumentIndex.create(options);
+        build(root, source, 0, source.length(), options);
+        return new DomParser(root);
+    }
+
+    /**
+     * 创建推送式解析器，通过feed送入字符内容
+     *
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @param handler 事件处理器
+     * @return 推送式解析器
+     */
+    public static PushParser push(boolean xmlmode, Handler handler) {
+        return new PushParser(handler, null, xmlmode);
+    }
+
+    /**
+     * 创建推送式解析器，可通过feed送入字节内容
+     *
+     * @param encode 字节内容的编码
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @param handler 事件处理器
+     * @return 推送式解析器
+     */
+    public static PushParser push(String encode, boolean xmlmode, Handler handler) {
+        return new PushParser(handler, encode, xmlmode);
+    }
+
+    /**
+     * 以内存映射方式读取UTF-8编码的文件，以事件方式解析，不构造节点树
+     *
+     * @param file 文件
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @param handler 事件处理器
+     */
+    public static void parseMapped(File file, boolean xmlmode, Handler handler) throws IOException {
+        parse(ByteSource.map(file), xmlmode, handler);
+    }
+
+    /**
+     * 以内存映射方式创建UTF-8编码文件的解析游标，名称、文本和属性只在获取时解码
+     *
+     * @param file 文件
+     * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
+     * @return 解析游标
+     */
+    public static Cursor cursorMapped(File file, boolean xmlmode) throws IOException {
+        return new Cursor(ByteSource.map(file), xmlmode);
+    }
+
+    /**
+     * 转换文档字符串为文档节点
+     *
+     * @param document 文档字符串
+     * @return 文档节点
+     */
+    private static Node build(String document, boolean xmlmode) {
+        return build(document, new Options().xmlmode(xmlmode));
+    }
+
+    /**
+     * 转换文档字符串为文档节点
+     *
+     * @param document 文档字符串
+     * @param options 解析选项
+     * @return 文档节点
+     */
+    private static Node build(String document, Options options) {
+        Node root = new Node();
+        root.index = DocumentIndex.create(options);
+        build(root, new StringSource(document), 0, document.length(), options);
+        return root;
+    }
+
+    /**
+     * 并行转换文档字符串为文档节点，先扫描出根元素内可安全分割的位置，各段分别构造后按顺序加入根元素
+     *
+     * @param document 文档字符串
+     * @param options 解析选项
+     * @param executor 线程池
+     * @return 文档节点
+     * @throws InterruptedException 等待解析结果时被中断
+     */
+    private static Node buildParallel(String document, Options options, ExecutorService executor) throws InterruptedException {
+        final Source source = new StringSource(document);
+        final Options optionsFinal = options;
+        int end = document.length();
+        int chunkSize = Math.max(PARALLEL_MIN_CHUNK, end / (Runtime.getRuntime().availableProcessors() * 4));
+        int[] points = splitPoints(source, 0, end, options.xmlmode, chunkSize);
+        Node root = new Node();
+        root.index = DocumentIndex.create(options);
+        if (points.length < 3) {//不足两段，顺序解析
+            build(root, source, 0, end, options);
+            return root;
+        }
+        BuildState state = new BuildState(source, options);
+        state.index = root.index;
+        //构造根元素及之前的内容
+        build(root, state, 0, points[0]);
+        NodeElement element = (NodeElement) root.children.get(root.children.size() - 1);
+        ArrayList<Future<Node>> futures = new ArrayList<Future<Node>>();
+        try {
+            for (int i = 0; i < points.length - 1; i++) {
+                final int chunkStart = points[i];
+                final int chunkEnd = points[i + 1];
+                futures.add(executor.submit(new Callable<Node>() {
+
+                    @Override
+                    public Node call() {
+                        Node chunk = new Node();
+                        build(chunk, source, chunkStart, chunkEnd, optionsFinal);
+                        return chunk;
+                    }
+                }));
+            }
+            for (Future<Node> future : futures) {
+                Node chunk = future.get();
+                if (chunk.children != null) {
+                    for (Node child : chunk.children) {
+                        element.addChild(child);
+                    }
+                }
+            }
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<Node> future : futures) {
+                future.cancel(true);
+            }
+        }
+        //构造根元素结束标签及之后的内容
+        int elementEnd = points[points.length - 1];
+        build(root, state, elementEnd, end);
+        if (options.spans && elementEnd < end) {//结束标签在根节点下构造，补充记录元素位置
+            int next = scanToken(source, elementEnd, end, options.xmlmode, true, new Token());
+            if (next >= 0) {
+                element.contentEnd = elementEnd;
+                element.sourceEnd = next;
+            }
+        }
+        return root;
+    }
+
+    /**
+     * 构造节点
+     *
+     * @param context 上下文节点
+     * @param source 内容源
+     * @param start 起始索引
+     * @param end 截止索引
+     * @param options 解析选项
+     */
+    private static void build(Node context, Source source, int start, int end, Options options) {
+        BuildState state = new BuildState(source, options);
+        state.index = context.index;
+        build(context, state, start, end);
+    }
+
+    /**
+     * 构造节点
+     *
+     * @param context 上下文节点
+     * @param state 构造状态
+     * @param start 起始索引
+     * @param end 截止索引
+     */
+    private static void build(Node context, BuildState state, int start, int end) {
+        Source source = state.source;
+        Options options = state.options;
+        SymbolTable symbols = state.symbols;
+        boolean xmlmode = options.xmlmode;
+        boolean slice = options.slice;
+        boolean spans = options.spans;
+        Token token = new Token();
+        AttrCollector collector = new AttrCollector();
+        collector.slice = slice;
+        collector.symbols = symbols;
+        int index = start;
+        while (index < end) {
+            int next = scanToken(source, index, end, xmlmode, true, token);
+            if (next < 0) {
+                break;//读取到结束
+            }
+            Node added = null;
+            switch (token.type) {
+                case Token.TEXT:
+                    NodeText text = new NodeText(null);
+                    if (slice) {
+                        text.textView = source.slice(token.contentStart, token.contentEnd);
+                    } else {
+                        text.text = source.substring(token.contentStart, token.contentEnd);
+                    }
+                    context.append(text);
+                    added = text;
+                    break;
+                case Token.COMMENT:
+                    NodeComment comment = new NodeComment(null);
+                    if (slice) {
+                        comment.commentView = source.slice(token.contentStart, token.contentEnd);
+                    } else {
+                        comment.comment = source.substring(token.contentStart, token.contentEnd);
+                    }
+                    context.append(comment);
+                    added = comment;
+                    break;
+                case Token.CDATA:
+                    NodeCDATA cdata = new NodeCDATA(null);
+                    if (slice) {
+                        cdata.contentView = source.slice(token.contentStart, token.contentEnd);
+                    } else {
+                        cdata.content = source.substring(token.contentStart, token.contentEnd);
+                    }
+                    context.append(cdata);
+                    added = cdata;
+                    break;
+                case Token.DEC:
+                    added = new NodeDec(source.substring(token.nameStart, token.nameEnd),
+                            source.substring(token.contentStart, token.contentEnd));
+                    context.append(added);
+                    break;
+                case Token.DEF:
+                    added = new NodeDef(source.substring(token.nameStart, token.nameEnd),
+                            source.substring(token.contentStart, token.contentEnd));
+                    context.append(added);
+                    break;
+                case Token.END:
+                    if (context instanceof NodeElement) {
+                        NodeElement elmNode = (NodeElement) context;
+                        if (!elmNode.closed && symbols.match(source, token.nameStart, token.nameEnd, elmNode, !xmlmode)) {
+                            if (spans) {
+                                elmNode.contentEnd = index;
+                                elmNode.sourceEnd = next;
+                            }
+                            if (context.parent != null) {
+                                context = context.parent;
+                            }
+                        }
+                    }
+                    break;
+                case Token.START:
+                    int slot = symbols.lookup(source, token.nameStart, token.nameEnd);
+                    String name = slot >= 0 ? symbols.names[slot] : source.substring(token.nameStart, token.nameEnd);
+                    CharSequence rawAttrs = null;
+                    if (options.lazyAttrs) {
+                        collector.attrs = null;
+                        if (searchNextChar(source, token.contentStart, token.contentEnd) >= 0) {
+                            rawAttrs = slice ? source.slice(token.contentStart, token.contentEnd)
+                                    : source.substring(token.contentStart, token.contentEnd);
+                        }
+                    } else {
+                        collector.attrs = new ArrayList<Attribute>();
+                        scanAttrs(source, token.contentStart, token.contentEnd, collector);
+                    }
+                    NodeElement elmNode;
+                    if (token.special) {
+                        NodeSpecial speNode = new NodeSpecial(name, collector.attrs, null);
+                        if (!token.closed) {
+                            speNode.closed = false;
+                            if (slice) {
+                                speNode.contentView = source.slice(token.specialStart, token.specialEnd);
+                            } else {
+                                speNode.content = source.substring(token.specialStart, token.specialEnd);
+                            }
+                        }
+                        elmNode = speNode;
+                    } else {
+                        elmNode = new NodeElement(name, collector.attrs, token.closed);
+                    }
+                    elmNode.rawAttrs = rawAttrs;
+                    if (slot >= 0) {
+                        elmNode.lowerOf = name;
+                        elmNode.lowerName = symbols.lowers[slot];
+                    }
+                    context.append(elmNode);
+                    added = elmNode;
+                    if (state.index != null) {
+                        state.index.add(elmNode);
+                    }
+                    if (!token.closed && !token.special) {
+                        if (options.lazyChildren && !spans && state.index == null) {//只查找内容范围，首次访问时再构造子节点
+                            int nameStart = token.nameStart;
+                            int nameEnd = token.nameEnd;
+                            elmNode.lazyStart = next;
+                            int skip = state.findSkip(next);
+                            if (skip >= 0) {//已在跳过祖先元素时记录
+                                elmNode.lazyEnd = state.skipEnds[skip];
+                                next = state.skipNexts[skip];
+                            } else {
+                                next = skipElement(source, next, end, xmlmode, token, nameStart, nameEnd, elmNode, state);
+                            }
+                            if (elmNode.lazyEnd > elmNode.lazyStart) {
+                                elmNode.lazyState = state;
+                            }
+                        } else {
+                            context = elmNode;
+                            if (spans) {
+                                elmNode.contentStart = next;
+                                added = null;//结束位置在结束标签处记录
+                                elmNode.sourceStart = index;
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (spans && added != null) {
+                added.sourceStart = index;
+                added.sourceEnd = next;
+            }
+            index = next;
+        }
     }
 
     /**
-     * 创建转换字符串为DOM文档
+     * 以事件方式解析文档字符串，不构造节点树
      *
      * @param document 文档字符串
-     * @return 文档对象
+     * @param handler 事件处理器
      */
-    public static DomParser create(String document) {
-        return new DomParser(build(document, false));
+    public static void parse(String document, Handler handler) {
+        parse(document, false, handler);
     }
 
     /**
-     * 创建转换字符串为DOM文档
+     * 以事件方式解析文档字符串，不构造节点树
      *
      * @param document 文档字符串
      * @param xmlmode 是否以XML解析，区分大小写，不去除特殊标签（script/style）
-     * @return 文档对象
-     */
-    public static DomParser create(String document, boolean xmlmode) {
-        return new DomParser(build(document, xmlmode));
-    }
-
-    /**
-     * 从文件读取DOM文档
-     *
-     * @param file 文件
-     * @return 文档对象
+     * @param handler 事件处理器
      */
-    public static DomParser create(File file) throws IOException {
-        return create(file, null);
+    public static void parse(String document, boolean xmlmode, Handler handler) {
+        parse(new StringSource(document), xmlmode, handler);
     }
 
     /**
-     * 从文件读取DOM文档
+     * 以事件方式解析内容源，不构造节点树
      *
-     * @param file 文件
-     * @param encode 文件编码
-     * @return 文档对象
+     * @param source 内容源
+     * @param xmlmode 是否以XML解析
+     * @param handler 事件处理器
      */
-    public static DomParser create(File file, String encode) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        BufferedReader reader;
-        if (encode == null) {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-        } else {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), encode));
-        }
-        try {
-            int read;
-            char[] buff = new char[1024];
-            while ((read = reader.read(buff)) != -1) {
-                sb.append(buff, 0, read);
+    private static void parse(Source source, boolean xmlmode, Handler handler) {
+        Token token = new Token();
+        HandlerAttrSink sink = new HandlerAttrSink(handler);
+        int index = 0;
+        int end = source.length();
+        while (index < end) {
+            int next = scanToken(source, index, end, xmlmode, true, token);
+            if (next < 0) {
+                break;//读取到结束
             }
-        } finally {
-            reader.close();
+            dispatch(source, token, sink);
+            index = next;
         }
-        return create(sb.toString());
     }
 
     /**
-     * 转换文档字符串为文档节点
+     * 将词法单元分发给事件处理器
      *
-     * @param document 文档字符串
-     * @return 文档节点
+     * @param source 内容源
+     * @param token 词法单元
+     * @param sink 转发给事件处理器的属性接收者
      */
-    private static Node build(String document, boolean xmlmode) {
-        Node root = new Node();
-        build(root, document, 0, document.length(), xmlmode);
-        return root;
+    private static void dispatch(Source source, Token token, HandlerAttrSink sink) {
+        Handler handler = sink.handler;
+        switch (token.type) {
+            case Token.TEXT:
+                handler.text(source.substring(token.contentStart, token.contentEnd));
+                break;
+            case Token.COMMENT:
+                handler.comment(source.substring(token.contentStart, token.contentEnd));
+                break;
+            case Token.CDATA:
+                handler.cdata(source.substring(token.contentStart, token.contentEnd));
+                break;
+            case Token.DEC:
+                handler.declaration(source.substring(token.nameStart, token.nameEnd),
+                        source.substring(token.contentStart, token.contentEnd));
+                break;
+            case Token.DEF:
+                handler.definition(source.substring(token.nameStart, token.nameEnd),
+                        source.substring(token.contentStart, token.contentEnd));
+                break;
+            case Token.END:
+                handler.endTag(source.substring(token.nameStart, token.nameEnd));
+                break;
+            case Token.START:
+                String name = source.substring(token.nameStart, token.nameEnd);
+                handler.startTag(name);
+                scanAttrs(source, token.contentStart, token.contentEnd, sink);
+                handler.startTagEnd(name, token.closed);
+                if (token.special && !token.closed) {
+                    if (token.specialEnd > token.specialStart) {
+                        handler.text(source.substring(token.specialStart, token.specialEnd));
+                    }
+                    handler.endTag(name);
+                }
+                break;
+            default:
+                break;
+        }
     }
 
     /**
-     * 构造节点
+     * 扫描下一个词法单元
      *
-     * @param context 上下文节点
      * @param source 内容源
-     * @param start 起始索引
+     * @param index 起始索引
      * @param end 截止索引
+     * @param xmlmode 是否以XML解析
+     * @param last 截止索引后是否已无更多内容，否则末尾未完成的文本也视为无法继续扫描
+     * @param token 用于保存结果的词法单元
+     * @return 下一个词法单元的起始索引，无法继续扫描返回-1
      */
-    private static void build(Node context, String source, int start, int end, boolean xmlmode) {
-        int index = start;
-        while (index < end) {
-            //查找起始标签
-            int tagStartIndex = source.indexOf('<', index);
-            //处理中间文本
-            if (tagStartIndex < 0 || tagStartIndex >= end) {//搜索结束，添加最后的文本节点
-                String text = source.substring(index, end);
-                context.addChild(new NodeText(text));
-                break;//读取到结束
-            } else if (tagStartIndex > index) {//发现标签，添加前导文本
-                String text = source.substring(index, tagStartIndex);
-                context.addChild(new NodeText(text));
+    private static int scanToken(Source source, int index, int end, boolean xmlmode, boolean last, Token token) {
+        //查找起始标签
+        int tagStartIndex = source.indexOf('<', index);
+        //处理中间文本
+        if (tagStartIndex < 0 || tagStartIndex >= end) {//搜索结束，最后的文本
+            if (!last) {
+                return -1;//文本可能尚未结束
             }
-            //处理标签
-            if (tagStartIndex + 1 >= end) {
-                break;//读取到结束
+            token.text(index, end);
+            return end;
+        } else if (tagStartIndex > index) {//发现标签，前导文本
+            token.text(index, tagStartIndex);
+            return tagStartIndex;
+        }
+        //处理标签
+        if (tagStartIndex + 1 >= end) {
+            return -1;//读取到结束
+        }
+        char firstChar = source.charAt(tagStartIndex + 1);
+        if (firstChar == '?') {
+            int nameEnd = searchWordEnd(source, tagStartIndex + 2, end);
+            if (nameEnd < 0 || nameEnd >= end) {
+                return -1;
+            }
+            int tagEndIndex = searchMatchStr(source, nameEnd, end, "?>", !xmlmode, true);
+            if (tagEndIndex < 0 || tagEndIndex >= end) {
+                return -1;
             }
-            char firstChar = source.charAt(tagStartIndex + 1);
-            if (firstChar == '?') {
+            token.named(Token.DEC, tagStartIndex + 2, nameEnd, nameEnd, tagEndIndex);
+            return tagEndIndex + 2;
+        } else if (firstChar == '!') {
+            if (tagStartIndex + 3 < end
+                    && source.charAt(tagStartIndex + 2) == '-'
+                    && source.charAt(tagStartIndex + 3) == '-') {
+                //处理注释内容
+                int commentEndIndex = source.indexOf("-->", tagStartIndex + 4);
+                if (commentEndIndex < 0 || commentEndIndex >= end) {
+                    return -1;
+                }
+                token.content(Token.COMMENT, tagStartIndex + 4, commentEndIndex);
+                return commentEndIndex + 3;
+            } else if (tagStartIndex + 8 < end && source.startsWith("[CDATA[", tagStartIndex + 2)) {
+                //处理CDATA内容
+                int cdataEndIndex = source.indexOf("]]>", tagStartIndex + 9);
+                if (cdataEndIndex < 0 || cdataEndIndex >= end) {
+                    return -1;
+                }
+                token.content(Token.CDATA, tagStartIndex + 9, cdataEndIndex);
+                return cdataEndIndex + 3;
+            } else {
                 int nameEnd = searchWordEnd(source, tagStartIndex + 2, end);
                 if (nameEnd < 0 || nameEnd >= end) {
-                    break;
+                    return -1;
                 }
-                String name = source.substring(tagStartIndex + 2, nameEnd);
-                int tagEndIndex = searchMatchStr(source, nameEnd, end, "?>", !xmlmode, true);
+                int tagEndIndex = searchMatchChar(source, nameEnd, end, '>', !xmlmode, true);
                 if (tagEndIndex < 0 || tagEndIndex >= end) {
-                    break;
+                    return -1;
                 }
-                String content = source.substring(nameEnd, tagEndIndex);
-                context.addChild(new NodeDec(name, content));
-                index = tagEndIndex + 2;
-                continue;
-            } else if (firstChar == '!') {
-                if (tagStartIndex + 3 < end
-                        && source.charAt(tagStartIndex + 2) == '-'
-                        && source.charAt(tagStartIndex + 3) == '-') {
-                    //处理注释内容
-                    int commentEndIndex = source.indexOf("-->", tagStartIndex + 4);
-                    if (commentEndIndex < 0 || commentEndIndex >= end) {
-                        break;
-                    } else {
-                        String comment = source.substring(tagStartIndex + 4, commentEndIndex);
-                        context.addChild(new NodeComment(comment));
-                        index = commentEndIndex + 3;
-                        continue;//get comment,continue
-                    }
-                } else if (tagStartIndex + 8 < end && source.startsWith("[CDATA[", tagStartIndex + 2)) {
-                    //处理CDATA内容
-                    int cdataEndIndex = source.indexOf("]]>", tagStartIndex + 9);
-                    if (cdataEndIndex < 0 || cdataEndIndex >= end) {
+                token.named(Token.DEF, tagStartIndex + 2, nameEnd, nameEnd, tagEndIndex);
+                return tagEndIndex + 1;
+            }
+        } else if (firstChar == '/') {
+            int tagEndIndex = searchMatchChar(source, tagStartIndex + 2, end, '>', !xmlmode, false);
+            if (tagEndIndex < 0 || tagEndIndex >= end) {
+                return -1;
+            }
+            //去除名称两端空白
+            int nameStart = tagStartIndex + 2;
+            int nameEnd = tagEndIndex;
+            while (nameStart < nameEnd && source.charAt(nameStart) <= ' ') {
+                nameStart++;
+            }
+            while (nameEnd > nameStart && source.charAt(nameEnd - 1) <= ' ') {
+                nameEnd--;
+            }
+            token.named(Token.END, nameStart, nameEnd, tagEndIndex, tagEndIndex);
+            return tagEndIndex + 1;
+        } else {
+            int nameEnd = searchWordEnd(source, tagStartIndex + 1, end);
+            if (nameEnd < 0 || nameEnd >= end) {
+                return -1;
+            }
+            int tagEndIndex = searchMatchChar(source, nameEnd, end, '>', !xmlmode, false);
+            if (tagEndIndex < 0 || tagEndIndex >= end) {
+                return -1;
+            }
+            int closeSymbolIndex = searchMatchChar(source, nameEnd, tagEndIndex, '/', !xmlmode, false);
+            boolean selfClose = closeSymbolIndex >= 0 && closeSymbolIndex < tagEndIndex;
+            closeSymbolIndex = closeSymbolIndex < 0 ? tagEndIndex : closeSymbolIndex;
+            if (singleTag(source, tagStartIndex + 1, nameEnd, xmlmode) >= 0) {
+                selfClose = true;
+            }
+            token.named(Token.START, tagStartIndex + 1, nameEnd, nameEnd, selfClose ? closeSymbolIndex : tagEndIndex);
+            token.closed = selfClose;
+            token.special = specialTag(source, tagStartIndex + 1, nameEnd, xmlmode) >= 0;
+            if (token.special && !selfClose) {
+                int specialSearchIndex = tagEndIndex + 1;
+                int contentStartIndex = specialSearchIndex;
+                int contentEndIndex = end;
+                boolean find = false;
+                while (specialSearchIndex < end && !find) {
+                    contentEndIndex = searchMatchStr(source, specialSearchIndex, end, "</", !xmlmode, false);
+                    if (contentEndIndex < 0 || contentEndIndex >= end) {
                         break;
-                    } else {
-                        String cdata = source.substring(tagStartIndex + 9, cdataEndIndex);
-                        context.addChild(new NodeCDATA(cdata));
-                        index = cdataEndIndex + 3;
-                        continue;//get cdata,continue
                     }
-                } else {
-                    int nameEnd = searchWordEnd(source, tagStartIndex + 2, end);
-                    if (nameEnd < 0 || nameEnd >= end) {
+                    int closeTagEndIndex = searchMatchChar(source, contentEndIndex + 2, end, '>', !xmlmode, false);
+                    if (closeTagEndIndex < 0 || closeTagEndIndex >= end) {
                         break;
                     }
-                    String name = source.substring(tagStartIndex + 2, nameEnd);
-                    int tagEndIndex = searchMatchChar(source, nameEnd, end, '>', !xmlmode, true);
-                    if (tagEndIndex < 0 || tagEndIndex >= end) {
-                        break;
+                    //去除结束标签名称两端空白
+                    int closeNameStart = contentEndIndex + 2;
+                    int closeNameEnd = closeTagEndIndex;
+                    while (closeNameStart < closeNameEnd && source.charAt(closeNameStart) <= ' ') {
+                        closeNameStart++;
                     }
-                    String content = source.substring(nameEnd, tagEndIndex);
-                    context.addChild(new NodeDef(name, content));
-                    index = tagEndIndex + 1;
-                    continue;
+                    while (closeNameEnd > closeNameStart && source.charAt(closeNameEnd - 1) <= ' ') {
+                        closeNameEnd--;
+                    }
+                    if (regionEqual(source, tagStartIndex + 1, nameEnd, closeNameStart, closeNameEnd, !xmlmode)) {
+                        find = true;
+                    }
+                    specialSearchIndex = closeTagEndIndex + 1;
                 }
-            } else if (firstChar == '/') {
-                int tagEndIndex = searchMatchChar(source, tagStartIndex + 2, end, '>', !xmlmode, false);
-                if (tagEndIndex < 0 || tagEndIndex >= end) {
-                    break;
+                if (!find) {
+                    return -1;
                 }
-                String name = source.substring(tagStartIndex + 2, tagEndIndex).trim();
-                if (context instanceof NodeElement) {
-                    NodeElement elmNode = (NodeElement) context;
-                    if (!elmNode.closed && strEqual(name, elmNode.name, !xmlmode)) {
-                        if (context.parent != null) {
-                            context = context.parent;
-                        }
-                    }
+                token.specialStart = contentStartIndex;
+                token.specialEnd = contentEndIndex;
+                return specialSearchIndex;
+            }
+            return tagEndIndex + 1;
+        }
+    }
+
+    /**
+     * 跳过元素内容，查找与开始标签匹配的结束标签，只记录名称索引，不构造节点<br/>
+     * 同时在构造状态中记录每个子孙元素的内容范围，子孙元素延迟构造时不再重复扫描
+     *
+     * @param source 内容源
+     * @param index 元素内容起始索引
+     * @param end 截止索引
+     * @param xmlmode 是否以XML解析
+     * @param token 用于扫描的词法单元
+     * @param nameStart 元素名称起始索引
+     * @param nameEnd 元素名称截止索引
+     * @param element 元素节点，记录内容截止索引
+     * @param state 构造状态，记录子孙元素的内容范围
+     * @return 结束标签后的索引，没有匹配的结束标签时为扫描结束的索引
+     */
+    private static int skipElement(Source source, int index, int end, boolean xmlmode, Token token,
+            int nameStart, int nameEnd, NodeElement element, BuildState state) {
+        int[] stack = token.stack;//每个打开的元素依次为名称起止索引和记录位置
+        stack[0] = nameStart;
+        stack[1] = nameEnd;
+        stack[2] = -1;
+        int size = 3;
+        while (index < end) {
+            int next = scanToken(source, index, end, xmlmode, true, token);
+            if (next < 0) {
+                break;//读取到结束
+            }
+            if (token.type == Token.START && !token.closed && !token.special) {
+                if (size + 3 > stack.length) {
+                    int[] newStack = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, newStack, 0, size);
+                    stack = newStack;
+                    token.stack = stack;
                 }
-                index = tagEndIndex + 1;
-                continue;
-            } else {
-                int nameEnd = searchWordEnd(source, tagStartIndex + 1, end);
-                if (nameEnd < 0 || nameEnd >= end) {
-                    break;
+                stack[size++] = token.nameStart;
+                stack[size++] = token.nameEnd;
+                stack[size++] = state.addSkip(next);
+            } else if (token.type == Token.END
+                    && regionEqual(source, stack[size - 3], stack[size - 2], token.nameStart, token.nameEnd, !xmlmode)) {
+                size -= 3;
+                if (size == 0) {
+                    element.lazyEnd = index;
+                    return next;
                 }
-                String name = source.substring(tagStartIndex + 1, nameEnd);
-                int tagEndIndex = searchMatchChar(source, nameEnd, end, '>', !xmlmode, false);
-                if (tagEndIndex < 0 || tagEndIndex >= end) {
-                    break;
+                int skip = stack[size + 2];
+                if (skip >= 0) {
+                    state.skipEnds[skip] = index;
+                    state.skipNexts[skip] = next;
                 }
-                int closeSymbolIndex = searchMatchChar(source, nameEnd, tagEndIndex, '/', !xmlmode, false);
-                boolean selfClose = closeSymbolIndex >= 0 && closeSymbolIndex < tagEndIndex;
-                closeSymbolIndex = closeSymbolIndex < 0 ? tagEndIndex : closeSymbolIndex;
-                if (singleTag(name, xmlmode) >= 0) {
-                    selfClose = true;
-                }
-                ArrayList<Attribute> attrs = buildAttrs(source, nameEnd, selfClose ? closeSymbolIndex : tagEndIndex);
-                int specialIndex = specialTag(name, xmlmode);
-                if (specialIndex >= 0) {
-                    if (!selfClose) {
-                        int specialSearchIndex = tagEndIndex + 1;
-                        int contentStartIndex = specialSearchIndex;
-                        int contentEndIndex = end;
-                        boolean find = false;
-                        while (specialSearchIndex < end && !find) {
-                            contentEndIndex = searchMatchStr(source, specialSearchIndex, end, "</", !xmlmode, false);
-                            if (contentEndIndex < 0 || contentEndIndex >= end) {
-                                break;
-                            }
-                            int closeTagEndIndex = searchMatchChar(source, contentEndIndex + 2, end, '>', !xmlmode, false);
-                            if (closeTagEndIndex < 0 || closeTagEndIndex >= end) {
-                                break;
-                            }
-                            String closeTagName = source.substring(contentEndIndex + 2, closeTagEndIndex);
-                            if (strEqual(name, closeTagName.trim(), !xmlmode)) {
-                                find = true;
-                            }
-                            specialSearchIndex = closeTagEndIndex + 1;
-                        }
-                        if (find) {
-                            String content = source.substring(contentStartIndex, contentEndIndex);
-                            NodeSpecial speNode = new NodeSpecial(name, attrs, content);
-                            context.addChild(speNode);
-                            index = specialSearchIndex;
-                            continue;
-                        } else {
-                            break;
-                        }
-                    } else {
-                        NodeSpecial speNode = new NodeSpecial(name, attrs, null);
-                        context.addChild(speNode);
-                        index = tagEndIndex + 1;
-                        continue;
-                    }
-                } else {
-                    NodeElement elmNode = new NodeElement(name, attrs, selfClose);
-                    context.addChild(elmNode);
-                    if (!selfClose) {
-                        context = elmNode;
+            }
+            index = next;
+        }
+        for (int i = 5; i < size; i += 3) {//未结束的子孙元素与本元素一样延续到扫描结束处
+            if (stack[i] >= 0) {
+                state.skipEnds[stack[i]] = index;
+                state.skipNexts[stack[i]] = index;
+            }
+        }
+        element.lazyEnd = index;
+        return index;
+    }
+
+    /**
+     * 查找第一个顶层元素内可分割的位置，只在该元素的直接子节点之间分割，名称匹配规则与构造节点相同
+     *
+     * @param source 内容源
+     * @param start 起始索引
+     * @param end 截止索引
+     * @param xmlmode 是否以XML解析
+     * @param chunkSize 每段内容的最小长度
+     * @return 分割位置，首个为元素内容起始索引，最后一个为元素结束标签起始索引；没有可分割的元素时为空数组
+     */
+    private static int[] splitPoints(Source source, int start, int end, boolean xmlmode, int chunkSize) {
+        Token token = new Token();
+        SymbolTable symbols = new SymbolTable();
+        ArrayList<String> stack = new ArrayList<String>();
+        int[] points = new int[16];
+        int count = 0;
+        int elementEnd = end;
+        int index = start;
+        while (index < end) {
+            int next = scanToken(source, index, end, xmlmode, true, token);
+            if (next < 0) {
+                break;//读取到结束
+            }
+            if (token.type == Token.START && !token.closed && !token.special) {
+                int slot = symbols.lookup(source, token.nameStart, token.nameEnd);
+                stack.add(slot >= 0 ? symbols.names[slot] : source.substring(token.nameStart, token.nameEnd));
+                if (count == 0 && stack.size() == 1) {
+                    points[count++] = next;//元素内容起始
+                }
+            } else if (token.type == Token.END && !stack.isEmpty()) {
+                int slot = symbols.lookup(source, token.nameStart, token.nameEnd);
+                String name = slot >= 0 ? symbols.names[slot] : source.substring(token.nameStart, token.nameEnd);
+                if (strEqual(name, stack.get(stack.size() - 1), !xmlmode)) {
+                    stack.remove(stack.size() - 1);
+                    if (stack.isEmpty() && count > 0) {
+                        elementEnd = index;//元素结束标签起始
+                        break;
                     }
-                    index = tagEndIndex + 1;
                 }
-                continue;
+            }
+            if (count > 0 && stack.size() == 1 && next - points[count - 1] >= chunkSize && next < end) {
+                if (count + 1 >= points.length) {
+                    int[] newPoints = new int[points.length * 2];
+                    System.arraycopy(points, 0, newPoints, 0, count);
+                    points = newPoints;
+                }
+                points[count++] = next;
+            }
+            index = next;
+        }
+        if (count == 0) {
+            return new int[0];
+        }
+        if (points[count - 1] < elementEnd) {
+            points[count++] = elementEnd;
+        }
+        int[] result = new int[count];
+        System.arraycopy(points, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * 判断内容源中两段内容是否相等
+     *
+     * @param source 内容源
+     * @param start1 内容1起始索引
+     * @param end1 内容1截止索引
+     * @param start2 内容2起始索引
+     * @param end2 内容2截止索引
+     * @param ignoreCase 是否忽略大小写
+     * @return 是否相等
+     */
+    private static boolean regionEqual(Source source, int start1, int end1, int start2, int end2, boolean ignoreCase) {
+        if (end1 - start1 != end2 - start2) {
+            return false;
+        }
+        for (int i = start1, j = start2; i < end1; i++, j++) {
+            if (!chEqual(source.charAt(i), source.charAt(j), ignoreCase)) {
+                return false;
             }
         }
+        return true;
     }
 
     /**
      * 是否为特殊标签，内部不会被解析
      *
-     * @param name 标签名称
+     * @param source 内容源
+     * @param start 标签名称起始索引
+     * @param end 标签名称截止索引
      * @param xmlmode 是否xml模式（无特殊标签）
      * @return 特殊标签数组索引，不匹配返回-1
      */
-    private static int specialTag(String name, boolean xmlmode) {
-        if (xmlmode) {
-            return -1;
-        } else {
-            name = name.toLowerCase();
-            for (int i = 0; i < SPECIAL_TAG.length; i++) {
-                if (SPECIAL_TAG[i].equals(name)) {
-                    return i;
-                }
-            }
-            return -1;
-        }
+    private static int specialTag(Source source, int start, int end, boolean xmlmode) {
+        return xmlmode ? -1 : tagIndex(SPECIAL_TAG, source, start, end);
     }
 
     /**
      * 是否为特殊标签，无内容的单标签
      *
-     * @param name 标签名称
+     * @param source 内容源
+     * @param start 标签名称起始索引
+     * @param end 标签名称截止索引
      * @param xmlmode 是否xml模式（无特殊标签）
      * @return 特殊标签数组索引，不匹配返回-1
      */
-    private static int singleTag(String name, boolean xmlmode) {
-        if (xmlmode) {
-            return -1;
-        } else {
-            name = name.toLowerCase();
-            for (int i = 0; i < SINGLE_TAG.length; i++) {
-                if (SINGLE_TAG[i].equals(name)) {
-                    return i;
-                }
+    private static int singleTag(Source source, int start, int end, boolean xmlmode) {
+        return xmlmode ? -1 : tagIndex(SINGLE_TAG, source, start, end);
+    }
+
+    /**
+     * 在标签组中忽略大小写查找标签名称
+     *
+     * @param tags 标签组
+     * @param source 内容源
+     * @param start 标签名称起始索引
+     * @param end 标签名称截止索引
+     * @return 标签数组索引，不匹配返回-1
+     */
+    private static int tagIndex(String[] tags, Source source, int start, int end) {
+        int length = end - start;
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i].length() == length && source.regionMatches(start, tags[i])) {
+                return i;
             }
-            return -1;
         }
+        return -1;
     }
 
     /**
@@ -1936,10 +8268,9 @@ public class DomParser {
      * @param source html代码
      * @param start 标签属性起始索引
      * @param end 标签属性截止索引
-     * @return 标签属性
+     * @param sink 属性接收者
      */
-    private static ArrayList<Attribute> buildAttrs(String source, int start, int end) {
-        ArrayList<Attribute> attrs = new ArrayList<Attribute>();
+    private static void scanAttrs(Source source, int start, int end, AttrSink sink) {
         int index = start;
         while (index < end) {
             //Step-1:get attr name
@@ -1951,37 +8282,35 @@ public class DomParser {
             if (indexEnd >= end) {
                 break;//html end
             }
-            String attrName = source.substring(indexStart, indexEnd);
+            int nameStart = indexStart;
+            int nameEnd = indexEnd;
             //Step-2:get '='
             indexStart = searchNextChar(source, indexEnd, end);
             if (indexStart < 0) {
-                attrs.add(new Attribute(attrName, null));
+                sink.attribute(source, nameStart, nameEnd, -1, -1, Attribute.DEFAULT_QUOTE);
                 break;//html end
             }
             char ch = source.charAt(indexStart);
             if (ch != '=') {
-                attrs.add(new Attribute(attrName, null));
+                sink.attribute(source, nameStart, nameEnd, -1, -1, Attribute.DEFAULT_QUOTE);
                 index = indexStart;
                 continue;//new attr start
             }
             //Step-3:get attr value
             indexStart = searchNextChar(source, indexStart + 1, end);
             if (indexStart < 0) {
-                attrs.add(new Attribute(attrName, null));
+                sink.attribute(source, nameStart, nameEnd, -1, -1, Attribute.DEFAULT_QUOTE);
                 break;//html end
             }
             ch = source.charAt(indexStart);
-            String attrValue;
             if (ch == '\'' || ch == '"') {//quote value
                 indexStart = indexStart + 1;
                 indexEnd = source.indexOf(ch, indexStart);
                 if (indexEnd >= 0 && indexEnd < end) {
-                    attrValue = source.substring(indexStart, indexEnd);
-                    attrs.add(new Attribute(attrName, attrValue, ch));
+                    sink.attribute(source, nameStart, nameEnd, indexStart, indexEnd, ch);
                     index = indexEnd + 1;
                 } else {
-                    attrValue = source.substring(indexStart, end);
-                    attrs.add(new Attribute(attrName, attrValue, ch));
+                    sink.attribute(source, nameStart, nameEnd, indexStart, end, ch);
                     break;//html end
                 }
             } else {//none quote value
@@ -1992,17 +8321,14 @@ public class DomParser {
                     }
                 }
                 if (indexEnd < end) {
-                    attrValue = source.substring(indexStart, indexEnd);
-                    attrs.add(new Attribute(attrName, attrValue, Attribute.NONE_QUOTE));
+                    sink.attribute(source, nameStart, nameEnd, indexStart, indexEnd, Attribute.NONE_QUOTE);
                     index = indexEnd;
                 } else {
-                    attrValue = source.substring(indexStart, end);
-                    attrs.add(new Attribute(attrName, attrValue, Attribute.NONE_QUOTE));
+                    sink.attribute(source, nameStart, nameEnd, indexStart, end, Attribute.NONE_QUOTE);
                     break;//html end
                 }
             }
         }
-        return attrs;
     }
 
     /**
@@ -2013,11 +8339,11 @@ public class DomParser {
      * @param end 截止索引
      * @return 下一个非空字符索引，没有找到返回-1
      */
-    private static int searchNextChar(String source, int start, int end) {
+    private static int searchNextChar(Source source, int start, int end) {
         if (start >= 0) {
             for (int i = start; i < source.length() && i < end; i++) {
                 char ch = source.charAt(i);
-                if (ch != ' ' && ch != '\t' && ch != '\n' && ch != '\r') {
+                if (ch >= 128 || (CHAR_TYPES[ch] & CH_SPACE) == 0) {
                     return i;
                 }
             }
@@ -2033,7 +8359,7 @@ public class DomParser {
      * @param end 截止索引
      * @return 单词结尾索引，或截止索引
      */
-    private static int searchWordEnd(String source, int start, int end) {
+    private static int searchWordEnd(Source source, int start, int end) {
         if (start >= 0) {
             for (int i = start; i < source.length() && i < end; i++) {
                 if (!isWordChar(source.charAt(i))) {
@@ -2055,17 +8381,18 @@ public class DomParser {
      * @param hasStack 是否有括号匹配堆栈
      * @return 查找到的匹配右尖括号索引
      */
-    private static int searchMatchStr(String source, int start, int end, String searchStr, boolean ignoreCase, boolean hasStack) {
-        if (source == null || "".equals(source)) {
+    private static int searchMatchStr(Source source, int start, int end, String searchStr, boolean ignoreCase, boolean hasStack) {
+        if (source == null || source.length() == 0) {
             return -1;
         }
-        int newEndIndex = end - searchStr.length() + 1;
-        char[] chs = searchStr.toCharArray();
-        int index = searchMatchChar(source, start, newEndIndex, chs[0], ignoreCase, hasStack);
+        int length = searchStr.length();
+        int newEndIndex = end - length + 1;
+        char firstCh = searchStr.charAt(0);
+        int index = searchMatchChar(source, start, newEndIndex, firstCh, ignoreCase, hasStack);
         while (index >= 0) {
             boolean match = true;
-            for (int i = 1; i < chs.length; i++) {
-                if (!chEqual(chs[i], source.charAt(index + i), ignoreCase)) {
+            for (int i = 1; i < length; i++) {
+                if (!chEqual(searchStr.charAt(i), source.charAt(index + i), ignoreCase)) {
                     match = false;
                     break;
                 }
@@ -2073,7 +8400,7 @@ public class DomParser {
             if (match) {
                 return index;
             }
-            index = searchMatchChar(source, index + 1, newEndIndex, chs[0], ignoreCase, hasStack);
+            index = searchMatchChar(source, index + 1, newEndIndex, firstCh, ignoreCase, hasStack);
         }
         return index;
     }
@@ -2089,30 +8416,26 @@ public class DomParser {
      * @param hasStack 是否有括号匹配堆栈
      * @return 查找到的匹配右尖括号索引
      */
-    private static int searchMatchChar(String source, int start, int end, char searchCh, boolean ignoreCase, boolean hasStack) {
-        ArrayList<Character> stack = null;
-        if (hasStack) {
-            stack = new ArrayList<Character>();
-        }
+    private static int searchMatchChar(Source source, int start, int end, char searchCh, boolean ignoreCase, boolean hasStack) {
+        //括号栈，每层2位保存在long中，超过32层时使用数组
+        long stack = 0;
+        char[] deepStack = null;
+        int depth = 0;
+        char searchLower = ignoreCase ? lowerChar(searchCh) : searchCh;
         int index = start;
         while (index < end) {
             char ch = source.charAt(index);
-            if (chEqual(searchCh, ch, ignoreCase)) {
-                if (hasStack) {
-                    if (stack.isEmpty()) {
-                        return index;
-                    }
-                } else {
+            if (ch == searchCh || (ignoreCase && lowerChar(ch) == searchLower)) {
+                if (!hasStack || depth == 0) {
                     return index;
                 }
             }
-            if ((ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9')
-                    || ch == '=' || ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r'
-                    || ch == '_' || ch == '-' || ch == ':' || ch == '.') {
+            int type = ch < 128 ? CHAR_TYPES[ch] : 0;
+            if ((type & CH_SKIP) != 0) {
                 index++;
                 continue;//skip char to speed up
             }
-            if (ch == '"' || ch == '\'') {//solve string
+            if ((type & CH_QUOTE) != 0) {//solve string
                 int match = source.indexOf(ch, index + 1);
                 if (match >= 0 && match < end) {
                     index = match + 1;
@@ -2122,32 +8445,35 @@ public class DomParser {
                 }
             }
             if (hasStack) {
-                if (ch == '<' || ch == '(' || ch == '[' || ch == '{') {
-                    stack.add(ch);
+                if ((type & CH_OPEN) != 0) {
+                    int code = bracketCode(ch);
+                    if (depth < 32) {
+                        stack |= (long) code << (depth * 2);
+                    } else {
+                        if (deepStack == null) {
+                            deepStack = new char[32];
+                        } else if (depth - 32 == deepStack.length) {
+                            char[] newStack = new char[deepStack.length * 2];
+                            System.arraycopy(deepStack, 0, newStack, 0, deepStack.length);
+                            deepStack = newStack;
+                        }
+                        deepStack[depth - 32] = (char) code;
+                    }
+                    depth++;
                     index++;
                     continue;//push left symbol
                 }
-                if (ch == '>' || ch == ')' || ch == ']' || ch == '}') {
-                    int size = stack.size();
-                    if (stack.isEmpty()) {
+                if ((type & CH_CLOSE) != 0) {
+                    if (depth == 0) {
                         break;
                     }
-                    char stackCh = stack.get(size - 1).charValue();
-                    boolean match = false;
-                    if (!match && stackCh == '<' && ch == '>') {
-                        match = true;
-                    }
-                    if (!match && stackCh == '(' && ch == ')') {
-                        match = true;
-                    }
-                    if (!match && stackCh == '[' && ch == ']') {
-                        match = true;
-                    }
-                    if (!match && stackCh == '{' && ch == '}') {
-                        match = true;
-                    }
-                    if (match) {
-                        stack.remove(size - 1);
+                    int top = depth - 1;
+                    int code = top < 32 ? (int) (stack >>> (top * 2)) & 3 : deepStack[top - 32];
+                    if (code == bracketCode(ch)) {
+                        if (top < 32) {
+                            stack &= ~(3L << (top * 2));
+                        }
+                        depth = top;
                         index++;
                         continue;//get right symbol
                     } else {
@@ -2161,6 +8487,28 @@ public class DomParser {
         return -1;
     }
 
+    /**
+     * 获取括号编号，左右括号编号相同
+     *
+     * @param ch 括号字符
+     * @return 括号编号
+     */
+    private static int bracketCode(char ch) {
+        switch (ch) {
+            case '(':
+            case ')':
+                return 1;
+            case '[':
+            case ']':
+                return 2;
+            case '{':
+            case '}':
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
     /**
      * 判断两个字符是否相等
      *
@@ -2170,11 +8518,20 @@ public class DomParser {
      * @return 是否相等
      */
     private static boolean chEqual(char ch1, char ch2, boolean ignoreCase) {
-        if (ignoreCase) {
-            return Character.toLowerCase(ch1) == Character.toLowerCase(ch2);
-        } else {
-            return ch1 == ch2;
+        if (ch1 == ch2) {
+            return true;
         }
+        return ignoreCase && lowerChar(ch1) == lowerChar(ch2);
+    }
+
+    /**
+     * 获取小写字符，ASCII字符查表
+     *
+     * @param ch 字符
+     * @return 小写字符
+     */
+    private static char lowerChar(char ch) {
+        return ch < 128 ? LOWER_CHARS[ch] : Character.toLowerCase(ch);
     }
 
     /**
@@ -2188,6 +8545,8 @@ public class DomParser {
     private static boolean strEqual(String str1, String str2, boolean ignoreCase) {
         if (str1 == null || str2 == null) {
             return false;
+        } else if (str1 == str2) {
+            return true;
         } else {
             if (ignoreCase) {
                 return str1.toLowerCase().equals(str2.toLowerCase());
@@ -2197,6 +8556,70 @@ public class DomParser {
         }
     }
 
+    /**
+     * 在属性组中查找属性，忽略大小写
+     *
+     * @param attrs 属性组，可为null
+     * @param name 属性名称
+     * @return 属性对象
+     */
+    private static Attribute findAttr(ArrayList<Attribute> attrs, String name) {
+        if (attrs != null) {
+            for (Attribute attr : attrs) {
+                if (strEqual(attr.name, name, true)) {
+                    return attr;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在属性组中查找属性值，忽略大小写
+     *
+     * @param attrs 属性组，可为null
+     * @param name 属性名称
+     * @return 属性值
+     */
+    private static String attrValue(ArrayList<Attribute> attrs, String name) {
+        Attribute attr = findAttr(attrs, name);
+        return attr == null ? null : attr.getValue();
+    }
+
+    /**
+     * 判断空白分隔的值中是否含有指定值，与按空白拆分后逐个比较相同
+     *
+     * @param values 空白分隔的值
+     * @param token 指定值
+     * @return 是否含有
+     */
+    private static boolean hasToken(String values, String token) {
+        if (values == null || token == null) {
+            return false;
+        }
+        int length = token.length();
+        int index = values.indexOf(token);
+        while (index >= 0) {
+            int end = index + length;
+            if ((index == 0 || isSplitSpace(values.charAt(index - 1)))
+                    && (end == values.length() || isSplitSpace(values.charAt(end)))) {
+                return true;
+            }
+            index = values.indexOf(token, index + 1);
+        }
+        return false;
+    }
+
+    /**
+     * 判断字符是否为正则表达式\s匹配的空白
+     *
+     * @param ch 字符
+     * @return 是否为空白
+     */
+    private static boolean isSplitSpace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+    }
+
     /**
      * 判断一个字符是否为一个单词字符
      *
@@ -2204,15 +8627,6 @@ public class DomParser {
      * @return 是否为一个单词字符
      */
     private static boolean isWordChar(char ch) {
-        if ((ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9')
-                || ch == '_' || ch == '-' || ch == ':' || ch == '.') {
-            return true;
-        }
-        if (ch == ' ' || ch == '=' || ch == '\t' || ch == '\n' || ch == '\r'
-                || ch == '<' || ch == '>' || ch == '!' || ch == '>' || ch == '(' || ch == ')'
-                || ch == '[' || ch == ']' || ch == '{' || ch == '}') {
-            return false;
-        }
-        return true;
+        return ch >= 128 || (CHAR_TYPES[ch] & CH_WORD) != 0;
     }
 }